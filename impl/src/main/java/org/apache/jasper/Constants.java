@@ -287,6 +287,15 @@ public class Constants {
     public static final boolean IS_SECURITY_ENABLED = 
         (System.getSecurityManager() != null);
 
+    /**
+     * Are requests served by virtual threads?  If so, the runtime does not
+     * keep per-thread caches, such as the PageContext and BodyContent
+     * pools, since a virtual thread serves a single request and is then
+     * discarded; pools shared by all threads are used instead.
+     */
+    public static final boolean VIRTUAL_THREADS =
+        Boolean.getBoolean("org.apache.jasper.VIRTUAL_THREADS");
+
     /**
      * The name of the JSP engine.  Used for X-Powered-By identification in
      * the response header
@@ -160,8 +160,24 @@ public final class EmbeddedServletOptions implements Options {
 
     private boolean genStringAsByteArray = true;
 
+    private boolean genBufferedStringAsByteArray = false;
+
+    private boolean escapeTemplateEL = false;
+
+    private boolean skipConstantSetters = false;
+
+    private boolean reuseJspFragments = false;
+
+    private boolean compileEL = false;
+
     private boolean defaultBufferNone = false;
 
+    private boolean adaptiveBufferSize = false;
+
+    private int adaptiveBufferMinSize = Constants.K;
+
+    private int adaptiveBufferMaxSize = 64 * Constants.K;
+
     private boolean errorOnUseBeanInvalidClassAttribute = false;
 
     /**
@@ -352,10 +368,42 @@ public final class EmbeddedServletOptions implements Options {
         return this.genStringAsByteArray;
     }
 
+    public boolean genBufferedStringAsByteArray() {
+        return this.genBufferedStringAsByteArray;
+    }
+
+    public boolean isEscapeTemplateEL() {
+        return escapeTemplateEL;
+    }
+
+    public boolean isSkipConstantSetters() {
+        return skipConstantSetters;
+    }
+
+    public boolean isReuseJspFragments() {
+        return reuseJspFragments;
+    }
+
+    public boolean isCompileEL() {
+        return compileEL;
+    }
+
     public boolean isDefaultBufferNone() {
         return defaultBufferNone;
     }
 
+    public boolean isAdaptiveBufferSize() {
+        return adaptiveBufferSize;
+    }
+
+    public int getAdaptiveBufferMinSize() {
+        return adaptiveBufferMinSize;
+    }
+
+    public int getAdaptiveBufferMaxSize() {
+        return adaptiveBufferMaxSize;
+    }
+
     /**
      * Class ID for use in the plugin tag when the browser is IE. 
      */
@@ -534,7 +582,15 @@ public final class EmbeddedServletOptions implements Options {
         isSmapDumped = getBoolean(config, isSmapDumped, "dumpSmap");
         genStringAsCharArray = getBoolean(config, genStringAsCharArray, "genStrAsCharArray");
         genStringAsByteArray = getBoolean(config, genStringAsByteArray, "genStrAsByteArray");
+        genBufferedStringAsByteArray = getBoolean(config, genBufferedStringAsByteArray, "genBufferedStrAsByteArray");
+        escapeTemplateEL = getBoolean(config, escapeTemplateEL, "escapeTemplateEL");
+        skipConstantSetters = getBoolean(config, skipConstantSetters, "skipConstantSetters");
+        reuseJspFragments = getBoolean(config, reuseJspFragments, "reuseJspFragments");
+        compileEL = getBoolean(config, compileEL, "compileEL");
         defaultBufferNone = getBoolean(config, defaultBufferNone, "defaultBufferNone");
+        adaptiveBufferSize = getBoolean(config, adaptiveBufferSize, "adaptiveBufferSize");
+        adaptiveBufferMinSize = getInt(config, adaptiveBufferMinSize, "adaptiveBufferMinSize");
+        adaptiveBufferMaxSize = getInt(config, adaptiveBufferMaxSize, "adaptiveBufferMaxSize");
         errorOnUseBeanInvalidClassAttribute = getBoolean(config, errorOnUseBeanInvalidClassAttribute, "errorOnUseBeanInvalidClassAttribute");
         fork = getBoolean(config, fork, "fork");
         xpoweredBy = getBoolean(config, xpoweredBy, "xpoweredBy");
@@ -763,6 +819,26 @@ public final class EmbeddedServletOptions implements Options {
         return init;
     }
 
+    private int getInt(ServletConfig config, int init, String param) {
+
+        String sParam = config.getInitParameter(param);
+        if (sParam != null) {
+            try {
+                int value = Integer.parseInt(sParam);
+                if (value > 0) {
+                    return value;
+                }
+            } catch (NumberFormatException ex) {
+                // Warn below
+            }
+            if (log.isLoggable(Level.WARNING)) {
+               log.warning(Localizer.getMessage("jsp.warning.boolean", param,
+                       String.valueOf(init)));
+            }
+        }
+        return init;
+    }
+
     /*
      * returns true if running with JDK 6 or later.
      */
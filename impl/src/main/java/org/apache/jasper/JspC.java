@@ -223,6 +223,11 @@ public class JspC implements Options {
     private boolean trimSpaces = false;
     private boolean genStringAsCharArray = false;
     private boolean genStringAsByteArray = true;
+    private boolean genBufferedStringAsByteArray = false;
+    private boolean escapeTemplateEL = false;
+    private boolean skipConstantSetters = false;
+    private boolean reuseJspFragments = false;
+    private boolean compileEL = false;
     private boolean defaultBufferNone = false;
     private boolean xpoweredBy;
     private boolean mappedFile = false;
@@ -614,6 +619,46 @@ public class JspC implements Options {
         return genStringAsByteArray;
     }
 
+    public void setGenBufferedStringAsByteArray(boolean genBufferedStringAsByteArray) {
+        this.genBufferedStringAsByteArray = genBufferedStringAsByteArray;
+    }
+
+    public boolean genBufferedStringAsByteArray() {
+        return genBufferedStringAsByteArray;
+    }
+
+    public boolean isEscapeTemplateEL() {
+        return escapeTemplateEL;
+    }
+
+    public void setEscapeTemplateEL(boolean escapeTemplateEL) {
+        this.escapeTemplateEL = escapeTemplateEL;
+    }
+
+    public boolean isSkipConstantSetters() {
+        return skipConstantSetters;
+    }
+
+    public void setSkipConstantSetters(boolean skipConstantSetters) {
+        this.skipConstantSetters = skipConstantSetters;
+    }
+
+    public boolean isReuseJspFragments() {
+        return reuseJspFragments;
+    }
+
+    public void setReuseJspFragments(boolean reuseJspFragments) {
+        this.reuseJspFragments = reuseJspFragments;
+    }
+
+    public boolean isCompileEL() {
+        return compileEL;
+    }
+
+    public void setCompileEL(boolean compileEL) {
+        this.compileEL = compileEL;
+    }
+
     public boolean isDefaultBufferNone() {
         return defaultBufferNone;
     }
@@ -622,6 +667,21 @@ public class JspC implements Options {
         this.defaultBufferNone = defaultBufferNone;
     }
 
+    /**
+     * Buffer sizes are only learned at runtime.
+     */
+    public boolean isAdaptiveBufferSize() {
+        return false;
+    }
+
+    public int getAdaptiveBufferMinSize() {
+        return Constants.K;
+    }
+
+    public int getAdaptiveBufferMaxSize() {
+        return 64 * Constants.K;
+    }
+
     /**
      * Sets the class-id value to be sent to Internet Explorer when using
      * <jsp:plugin> tags.
@@ -90,6 +90,34 @@ public interface Options {
      */
     public boolean isPoolingEnabled();
 
+    /**
+     * Are the setters of attributes with a constant value skipped when a
+     * pooled tag handler already holds the value?  Only the setters of
+     * properties that also have a getter are skipped, when the getter
+     * returns the value.  This assumes that calling a setter with the value
+     * its getter returns has no effect: it must not be used with tag
+     * handlers whose setters also change other state, such as a flag
+     * recording that the attribute was specified, which doEndTag() or
+     * release() then resets.
+     */
+    public boolean isSkipConstantSetters();
+
+    /**
+     * Are the fragments passed to simple tag handlers reused for the next
+     * invocation of the tag, once the handler's doTag() has returned?
+     * This applies to tag files, and to the handlers listed with a
+     * reuse-fragments element in WEB-INF/tagPlugins.xml, which must not
+     * keep a fragment beyond doTag().
+     */
+    public boolean isReuseJspFragments();
+
+    /**
+     * Are EL expressions compiled into Java code, instead of being
+     * evaluated by the EL interpreter?  Expressions that cannot be
+     * compiled are still passed to the EL interpreter.
+     */
+    public boolean isCompileEL();
+
     /**
      * Are we supporting HTML mapped servlets?
      */
@@ -227,12 +255,41 @@ public interface Options {
      */
     public boolean genStringAsByteArray();
 
+    /**
+     * Are text strings also to be generated as byte arrays for buffered
+     * pages?  Ignored if genStringAsByteArray() is false.
+     */
+    public boolean genBufferedStringAsByteArray();
+
+    /**
+     * Are the results of EL expressions in template text escaped for XML,
+     * as c:out does?
+     */
+    public boolean isEscapeTemplateEL();
+
     /**
      * If the buffer attribute for the page directive is not specified,
      * is the default "none"?
      */
     public boolean isDefaultBufferNone();
 
+    /**
+     * Do pages that do not specify their buffer size learn it from the
+     * amount of output of their past requests?  Pages with autoFlush set
+     * to false always get the default buffer size.
+     */
+    public boolean isAdaptiveBufferSize();
+
+    /**
+     * The minimum buffer size learned by a page.
+     */
+    public int getAdaptiveBufferMinSize();
+
+    /**
+     * The maximum buffer size learned by a page.
+     */
+    public int getAdaptiveBufferMaxSize();
+
     /**
      * Modification test interval.
      */
@@ -0,0 +1,888 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.jasper.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiles EL expressions into Java code, so that they do not have to be
+ * parsed by the ExpressionFactory for each evaluation.
+ *
+ * An expression is compiled into a static method of the generated
+ * servlet, that evaluates the expression with the methods of
+ * org.apache.jasper.runtime.ELRuntimeLibrary.  Identifiers, property
+ * accesses, literals, and the arithmetic, relational, logical,
+ * conditional and empty operators are supported.  An expression that
+ * uses anything else (functions, method calls, lambda expressions,
+ * collection constructions, assignments, string concatenation, #{}) is
+ * not compiled, and is passed to the EL interpreter as before.
+ *
+ * At runtime, the method falls back to the EL interpreter as well if the
+ * page context has a non standard ELResolver chain, see
+ * ELRuntimeLibrary.canEvaluate().
+ */
+class ELCompiler {
+
+    private static final String RUNTIME =
+        "org.apache.jasper.runtime.ELRuntimeLibrary";
+
+    private static final String PAGE_CONTEXT = "_jspx_page_context";
+
+    private static final Set<String> implicitObjects = new HashSet<String>(
+        Arrays.asList(new String[] {
+            "pageContext", "pageScope", "requestScope", "sessionScope",
+            "applicationScope", "param", "paramValues", "header",
+            "headerValues", "initParam", "cookie" }));
+
+    private static final Set<String> reservedWords = new HashSet<String>(
+        Arrays.asList(new String[] {
+            "and", "div", "empty", "eq", "false", "ge", "gt", "instanceof",
+            "le", "lt", "mod", "ne", "not", "null", "or", "true" }));
+
+    private static final Set<String> operators = new HashSet<String>(
+        Arrays.asList(new String[] {
+            "(", ")", "[", "]", ".", "?", ":", "+", "-", "*", "/", "%", "!",
+            "<", ">", "<=", ">=", "==", "!=", "&&", "||" }));
+
+    // The parts of the expression: Strings for the text outside ${},
+    // and Exprs for the expressions
+    private List<Object> parts;
+
+    private ServletWriter out;
+    private int varCount;
+
+    private ELCompiler(List<Object> parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * Parses an EL expression for compilation.
+     *
+     * @param expression The expression, as passed to the EL interpreter
+     * @param el The expression parsed by the ELParser
+     * @return An ELCompiler for the expression, or null if the expression
+     *         cannot be compiled
+     */
+    static ELCompiler parse(String expression, ELNode.Nodes el) {
+        List<Object> parts = new ArrayList<Object>();
+        StringBuilder source = new StringBuilder();
+        Iterator<ELNode> iter = el.iterator();
+        while (iter.hasNext()) {
+            ELNode node = iter.next();
+            if (node instanceof ELNode.Text) {
+                String text = ((ELNode.Text) node).getText();
+                parts.add(text);
+                source.append(text);
+            } else if (node instanceof ELNode.Root) {
+                ELNode.Root root = (ELNode.Root) node;
+                if (!root.isDollarExpr() || hasFunction(root)) {
+                    return null;
+                }
+                Expr expr = new Parser(root.getText()).parse();
+                if (expr == null) {
+                    return null;
+                }
+                parts.add(expr);
+                source.append("${").append(root.getText()).append('}');
+            } else {
+                return null;
+            }
+        }
+        // Escaped characters in the text are interpreted slightly
+        // differently by ELParser and the EL implementation: only compile
+        // expressions without them
+        if (parts.isEmpty() || !source.toString().equals(expression)) {
+            return null;
+        }
+        return new ELCompiler(parts);
+    }
+
+    private static boolean hasFunction(ELNode.Root root) {
+        Iterator<ELNode> iter = root.getExpression().iterator();
+        while (iter.hasNext()) {
+            if (iter.next() instanceof ELNode.Function) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Generates the method evaluating the expression.
+     *
+     * @param out The writer to which the method is generated
+     * @param methodName The name of the method
+     * @param expectedType The expected type of the expression
+     * @param interpreterCall The call to the EL interpreter evaluating
+     *        the expression, when the compiled code cannot be used
+     */
+    void generate(ServletWriter out, String methodName,
+                  Class<?> expectedType, String interpreterCall) {
+        this.out = out;
+        varCount = 0;
+
+        out.printil("private static "
+                    + JspUtil.toJavaSourceType(expectedType.getName())
+                    + " " + methodName + "(PageContext " + PAGE_CONTEXT
+                    + ") {");
+        out.pushIndent();
+        out.printil("if (!" + RUNTIME + ".canEvaluate(" + PAGE_CONTEXT
+                    + ")) {");
+        out.pushIndent();
+        out.printil("return " + interpreterCall + ";");
+        out.popIndent();
+        out.printil("}");
+
+        String value;
+        if (parts.size() == 1 && parts.get(0) instanceof Expr) {
+            value = ((Expr) parts.get(0)).generate(this);
+        } else {
+            // A composite expression evaluates to a String
+            value = newVar("java.lang.StringBuilder",
+                           "new java.lang.StringBuilder()");
+            for (Object part: parts) {
+                if (part instanceof String) {
+                    out.printil(value + ".append("
+                                + Generator.quote((String) part) + ");");
+                } else {
+                    String v = ((Expr) part).generate(this);
+                    out.printil(value + ".append(" + RUNTIME
+                                + ".coerceToString(" + v + "));");
+                }
+            }
+            value = value + ".toString()";
+        }
+        out.printil("return " + coerce(value, expectedType) + ";");
+        out.popIndent();
+        out.printil("}");
+        out.println();
+    }
+
+    /*
+     * The code coercing a value to the expected type
+     */
+    private static String coerce(String value, Class<?> expectedType) {
+        if (expectedType == Object.class) {
+            return value;
+        }
+        if (expectedType == String.class) {
+            return RUNTIME + ".coerceToString(" + value + ")";
+        }
+        String type = JspUtil.toJavaSourceType(expectedType.getName());
+        String coerce = RUNTIME + ".coerce(" + PAGE_CONTEXT + ", "
+                        + value + ", " + type + ".class)";
+        if (!expectedType.isPrimitive()) {
+            return "(" + type + ") " + coerce;
+        }
+        String boxedType;
+        if (expectedType == Boolean.TYPE) {
+            boxedType = "Boolean";
+        } else if (expectedType == Character.TYPE) {
+            boxedType = "Character";
+        } else if (expectedType == Integer.TYPE) {
+            boxedType = "Integer";
+        } else {
+            boxedType = Character.toUpperCase(type.charAt(0))
+                        + type.substring(1);
+        }
+        return "((" + boxedType + ") " + coerce + ")." + type + "Value()";
+    }
+
+    /*
+     * Generates the declaration of a local variable, and returns its name
+     */
+    private String newVar(String type, String value) {
+        String name = "_jspx_v" + varCount++;
+        out.printil(type + " " + name + " = " + value + ";");
+        return name;
+    }
+
+    private String newVar(String value) {
+        return newVar("Object", value);
+    }
+
+    /**
+     * A node of a compiled expression.
+     */
+    private static abstract class Expr {
+
+        /**
+         * Generates the code evaluating this expression.
+         * @return A Java expression without side effects, usually a local
+         *         variable, that holds the value of this expression
+         */
+        abstract String generate(ELCompiler c);
+    }
+
+    private static class Literal extends Expr {
+
+        private String code;
+
+        Literal(String code) {
+            this.code = code;
+        }
+
+        String generate(ELCompiler c) {
+            return code;
+        }
+    }
+
+    private static class Identifier extends Expr {
+
+        private String name;
+
+        Identifier(String name) {
+            this.name = name;
+        }
+
+        String generate(ELCompiler c) {
+            return generate(c, false);
+        }
+
+        String generate(ELCompiler c, boolean isBase) {
+            if ("pageContext".equals(name)) {
+                return PAGE_CONTEXT;
+            }
+            String method;
+            if (implicitObjects.contains(name)) {
+                method = "resolveVariable";
+            } else if (isBase) {
+                method = "getBase";
+            } else {
+                method = "getVariable";
+            }
+            return c.newVar(RUNTIME + "." + method + "(" + PAGE_CONTEXT + ", "
+                            + Generator.quote(name) + ")");
+        }
+
+        /**
+         * @return The code getting the given attribute of this implicit
+         *         object directly, or null if it has to be resolved
+         */
+        String generateProperty(String property) {
+            String scope = null;
+            if ("pageScope".equals(name)) {
+                scope = "PageContext.PAGE_SCOPE";
+            } else if ("requestScope".equals(name)) {
+                scope = "PageContext.REQUEST_SCOPE";
+            } else if ("applicationScope".equals(name)) {
+                scope = "PageContext.APPLICATION_SCOPE";
+            } else if ("param".equals(name)) {
+                return PAGE_CONTEXT + ".getRequest().getParameter("
+                       + Generator.quote(property) + ")";
+            }
+            if (scope == null) {
+                return null;
+            }
+            return PAGE_CONTEXT + ".getAttribute(" + Generator.quote(property)
+                   + ", " + scope + ")";
+        }
+    }
+
+    /*
+     * A value followed by .property or [expression] suffixes
+     */
+    private static class Value extends Expr {
+
+        private Expr prefix;
+        private List<Expr> suffixes = new ArrayList<Expr>();
+
+        Value(Expr prefix) {
+            this.prefix = prefix;
+        }
+
+        String generate(ELCompiler c) {
+            int first = 0;
+            String v;
+            if (prefix instanceof Identifier) {
+                Identifier id = (Identifier) prefix;
+                String code = null;
+                if (suffixes.get(0) instanceof StringLiteral) {
+                    code = id.generateProperty(
+                        ((StringLiteral) suffixes.get(0)).value);
+                }
+                if (code != null) {
+                    v = c.newVar(code);
+                    first = 1;
+                } else {
+                    v = id.generate(c, true);
+                }
+            } else {
+                v = prefix.generate(c);
+            }
+            if (v == PAGE_CONTEXT || prefix instanceof Literal) {
+                // Not a variable that can be assigned
+                v = c.newVar(v);
+            }
+            // The evaluation stops at the first null value
+            int depth = 0;
+            for (int i = first; i < suffixes.size(); i++) {
+                c.out.printil("if (" + v + " != null) {");
+                c.out.pushIndent();
+                depth++;
+                String property = suffixes.get(i).generate(c);
+                c.out.printil(v + " = " + RUNTIME + ".getProperty("
+                              + PAGE_CONTEXT + ", " + v + ", " + property
+                              + ");");
+            }
+            while (depth-- > 0) {
+                c.out.popIndent();
+                c.out.printil("}");
+            }
+            return v;
+        }
+    }
+
+    private static class StringLiteral extends Literal {
+
+        private String value;
+
+        StringLiteral(String value) {
+            super(Generator.quote(value));
+            this.value = value;
+        }
+    }
+
+    /*
+     * An operator that evaluates both operands, and is implemented by a
+     * method of ELRuntimeLibrary
+     */
+    private static class Binary extends Expr {
+
+        private String method;
+        private Expr left;
+        private Expr right;
+
+        Binary(String method, Expr left, Expr right) {
+            this.method = method;
+            this.left = left;
+            this.right = right;
+        }
+
+        String generate(ELCompiler c) {
+            String a = left.generate(c);
+            String b = right.generate(c);
+            return c.newVar(call(a, b));
+        }
+
+        String call(String a, String b) {
+            return RUNTIME + "." + method + "(" + a + ", " + b + ")";
+        }
+    }
+
+    private static class Equal extends Binary {
+
+        private boolean negate;
+
+        Equal(boolean negate, Expr left, Expr right) {
+            super("equals", left, right);
+            this.negate = negate;
+        }
+
+        String call(String a, String b) {
+            return "Boolean.valueOf(" + (negate ? "!" : "")
+                   + super.call(a, b) + ")";
+        }
+    }
+
+    /*
+     * < and >, of which the right operand is not evaluated if the left
+     * one is null
+     */
+    private static class LessGreater extends Binary {
+
+        LessGreater(String method, Expr left, Expr right) {
+            super(method, left, right);
+        }
+
+        String generate(ELCompiler c) {
+            String a = super.left.generate(c);
+            String v = c.newVar("Boolean.FALSE");
+            c.out.printil("if (" + a + " != null) {");
+            c.out.pushIndent();
+            String b = super.right.generate(c);
+            c.out.printil(v + " = " + call(a, b) + ";");
+            c.out.popIndent();
+            c.out.printil("}");
+            return v;
+        }
+    }
+
+    /*
+     * && and ||
+     */
+    private static class Logical extends Expr {
+
+        private boolean isAnd;
+        private Expr left;
+        private Expr right;
+
+        Logical(boolean isAnd, Expr left, Expr right) {
+            this.isAnd = isAnd;
+            this.left = left;
+            this.right = right;
+        }
+
+        String generate(ELCompiler c) {
+            String v = c.newVar(RUNTIME + ".coerceToBoolean("
+                                + left.generate(c) + ")");
+            c.out.printil("if (" + (isAnd ? "" : "!") + "((Boolean) " + v
+                          + ").booleanValue()) {");
+            c.out.pushIndent();
+            String b = right.generate(c);
+            c.out.printil(v + " = " + RUNTIME + ".coerceToBoolean(" + b
+                          + ");");
+            c.out.popIndent();
+            c.out.printil("}");
+            return v;
+        }
+    }
+
+    private static class Unary extends Expr {
+
+        private String operator;
+        private Expr operand;
+
+        Unary(String operator, Expr operand) {
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        String generate(ELCompiler c) {
+            String a = operand.generate(c);
+            if ("!".equals(operator)) {
+                return c.newVar("Boolean.valueOf(!" + RUNTIME
+                                + ".coerceToBoolean(" + a
+                                + ").booleanValue())");
+            } else if ("-".equals(operator)) {
+                return c.newVar(RUNTIME + ".negate(" + a + ")");
+            } else {
+                return c.newVar(RUNTIME + ".isEmpty(" + a + ")");
+            }
+        }
+    }
+
+    private static class Choice extends Expr {
+
+        private Expr condition;
+        private Expr ifTrue;
+        private Expr ifFalse;
+
+        Choice(Expr condition, Expr ifTrue, Expr ifFalse) {
+            this.condition = condition;
+            this.ifTrue = ifTrue;
+            this.ifFalse = ifFalse;
+        }
+
+        String generate(ELCompiler c) {
+            String a = condition.generate(c);
+            String v = c.newVar("null");
+            c.out.printil("if (" + RUNTIME + ".coerceToBoolean(" + a
+                          + ").booleanValue()) {");
+            c.out.pushIndent();
+            c.out.printil(v + " = " + ifTrue.generate(c) + ";");
+            c.out.popIndent();
+            c.out.printil("} else {");
+            c.out.pushIndent();
+            c.out.printil(v + " = " + ifFalse.generate(c) + ";");
+            c.out.popIndent();
+            c.out.printil("}");
+            return v;
+        }
+    }
+
+    /**
+     * Signals an expression that cannot be compiled.
+     */
+    private static class UnsupportedException extends Exception {
+    }
+
+    /**
+     * A recursive descent parser for the expressions that can be compiled.
+     * Operators, by increasing precedence:
+     *   ?:
+     *   || or
+     *   && and
+     *   == eq != ne
+     *   < lt > gt <= le >= ge
+     *   + -
+     *   * / div % mod
+     *   - ! not empty (unary)
+     *   . [] (property access)
+     */
+    private static class Parser {
+
+        private static final int EOF = 0;
+        private static final int IDENTIFIER = 1;
+        private static final int INTEGER = 2;
+        private static final int FLOAT = 3;
+        private static final int STRING = 4;
+        private static final int OPERATOR = 5;
+
+        private String expression;
+        private int index;
+        private int type;       // Type of the current token
+        private String token;   // The current token
+
+        Parser(String expression) {
+            this.expression = expression;
+        }
+
+        /**
+         * @return The parsed expression, or null if it cannot be compiled
+         */
+        Expr parse() {
+            try {
+                next();
+                Expr expr = parseChoice();
+                if (type != EOF) {
+                    return null;
+                }
+                return expr;
+            } catch (UnsupportedException ex) {
+                return null;
+            }
+        }
+
+        private Expr parseChoice() throws UnsupportedException {
+            Expr expr = parseOr();
+            if (accept("?")) {
+                Expr ifTrue = parseChoice();
+                expect(":");
+                Expr ifFalse = parseChoice();
+                expr = new Choice(expr, ifTrue, ifFalse);
+            }
+            return expr;
+        }
+
+        private Expr parseOr() throws UnsupportedException {
+            Expr expr = parseAnd();
+            while (accept("||") || accept("or")) {
+                expr = new Logical(false, expr, parseAnd());
+            }
+            return expr;
+        }
+
+        private Expr parseAnd() throws UnsupportedException {
+            Expr expr = parseEquality();
+            while (accept("&&") || accept("and")) {
+                expr = new Logical(true, expr, parseEquality());
+            }
+            return expr;
+        }
+
+        private Expr parseEquality() throws UnsupportedException {
+            Expr expr = parseCompare();
+            while (true) {
+                if (accept("==") || accept("eq")) {
+                    expr = new Equal(false, expr, parseCompare());
+                } else if (accept("!=") || accept("ne")) {
+                    expr = new Equal(true, expr, parseCompare());
+                } else {
+                    return expr;
+                }
+            }
+        }
+
+        private Expr parseCompare() throws UnsupportedException {
+            Expr expr = parseMath();
+            while (true) {
+                if (accept("<") || accept("lt")) {
+                    expr = new LessGreater("lessThan", expr, parseMath());
+                } else if (accept(">") || accept("gt")) {
+                    expr = new LessGreater("greaterThan", expr, parseMath());
+                } else if (accept("<=") || accept("le")) {
+                    expr = new Binary("lessThanOrEqual", expr, parseMath());
+                } else if (accept(">=") || accept("ge")) {
+                    expr = new Binary("greaterThanOrEqual", expr,
+                                      parseMath());
+                } else {
+                    return expr;
+                }
+            }
+        }
+
+        private Expr parseMath() throws UnsupportedException {
+            Expr expr = parseMultiply();
+            while (true) {
+                if (accept("+")) {
+                    expr = new Binary("add", expr, parseMultiply());
+                } else if (accept("-")) {
+                    expr = new Binary("subtract", expr, parseMultiply());
+                } else {
+                    return expr;
+                }
+            }
+        }
+
+        private Expr parseMultiply() throws UnsupportedException {
+            Expr expr = parseUnary();
+            while (true) {
+                if (accept("*")) {
+                    expr = new Binary("multiply", expr, parseUnary());
+                } else if (accept("/") || accept("div")) {
+                    expr = new Binary("divide", expr, parseUnary());
+                } else if (accept("%") || accept("mod")) {
+                    expr = new Binary("mod", expr, parseUnary());
+                } else {
+                    return expr;
+                }
+            }
+        }
+
+        private Expr parseUnary() throws UnsupportedException {
+            if (accept("-")) {
+                return new Unary("-", parseUnary());
+            } else if (accept("!") || accept("not")) {
+                return new Unary("!", parseUnary());
+            } else if (accept("empty")) {
+                return new Unary("empty", parseUnary());
+            }
+            return parseValue();
+        }
+
+        private Expr parseValue() throws UnsupportedException {
+            Expr prefix;
+            if (type == IDENTIFIER && !reservedWords.contains(token)) {
+                prefix = new Identifier(token);
+                next();
+                if (isOperator("(")) {
+                    // A lambda invocation; functions, with or without a
+                    // prefix, are already excluded by hasFunction()
+                    throw new UnsupportedException();
+                }
+            } else if (accept("(")) {
+                prefix = parseChoice();
+                expect(")");
+            } else {
+                prefix = parseLiteral();
+            }
+            Value value = null;
+            while (true) {
+                Expr suffix;
+                if (accept(".")) {
+                    if (type != IDENTIFIER || reservedWords.contains(token)) {
+                        throw new UnsupportedException();
+                    }
+                    suffix = new StringLiteral(token);
+                    next();
+                } else if (accept("[")) {
+                    suffix = parseChoice();
+                    expect("]");
+                } else {
+                    break;
+                }
+                if (isOperator("(")) {
+                    // A method call
+                    throw new UnsupportedException();
+                }
+                if (value == null) {
+                    value = new Value(prefix);
+                }
+                value.suffixes.add(suffix);
+            }
+            return value != null ? value : prefix;
+        }
+
+        private Expr parseLiteral() throws UnsupportedException {
+            Expr literal;
+            if (type == STRING) {
+                literal = new StringLiteral(token);
+            } else if (type == INTEGER) {
+                try {
+                    literal = new Literal("Long.valueOf("
+                                          + Long.parseLong(token) + "L)");
+                } catch (NumberFormatException ex) {
+                    // A BigInteger
+                    throw new UnsupportedException();
+                }
+            } else if (type == FLOAT) {
+                double d = Double.parseDouble(token);
+                if (Double.isInfinite(d)) {
+                    throw new UnsupportedException();
+                }
+                literal = new Literal("Double.valueOf(" + d + ")");
+            } else if (isOperator("true")) {
+                literal = new Literal("Boolean.TRUE");
+            } else if (isOperator("false")) {
+                literal = new Literal("Boolean.FALSE");
+            } else if (isOperator("null")) {
+                literal = new Literal("null");
+            } else {
+                throw new UnsupportedException();
+            }
+            next();
+            return literal;
+        }
+
+        private boolean isOperator(String op) {
+            return (type == OPERATOR
+                    || (type == IDENTIFIER && reservedWords.contains(op)))
+                && op.equals(token);
+        }
+
+        private boolean accept(String op) throws UnsupportedException {
+            if (isOperator(op)) {
+                next();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String op) throws UnsupportedException {
+            if (!accept(op)) {
+                throw new UnsupportedException();
+            }
+        }
+
+        /*
+         * Reads the next token
+         */
+        private void next() throws UnsupportedException {
+            while (index < expression.length()
+                    && Character.isWhitespace(expression.charAt(index))) {
+                index++;
+            }
+            if (index >= expression.length()) {
+                type = EOF;
+                token = null;
+                return;
+            }
+            int start = index;
+            char ch = expression.charAt(index++);
+            if (Character.isJavaIdentifierStart(ch)) {
+                while (index < expression.length()
+                        && Character.isJavaIdentifierPart(
+                               expression.charAt(index))) {
+                    index++;
+                }
+                type = IDENTIFIER;
+                token = expression.substring(start, index);
+            } else if (isDigit(ch)
+                    || (ch == '.' && index < expression.length()
+                        && isDigit(expression.charAt(index)))) {
+                type = (ch == '.') ? FLOAT : INTEGER;
+                skipDigits();
+                if (type == INTEGER && index < expression.length()
+                        && expression.charAt(index) == '.') {
+                    type = FLOAT;
+                    index++;
+                    skipDigits();
+                }
+                if (index < expression.length()
+                        && (expression.charAt(index) == 'e'
+                            || expression.charAt(index) == 'E')) {
+                    type = FLOAT;
+                    index++;
+                    if (index < expression.length()
+                            && (expression.charAt(index) == '+'
+                                || expression.charAt(index) == '-')) {
+                        index++;
+                    }
+                    if (index >= expression.length()
+                            || !isDigit(expression.charAt(index))) {
+                        throw new UnsupportedException();
+                    }
+                    skipDigits();
+                }
+                token = expression.substring(start, index);
+            } else if (ch == '\'' || ch == '"') {
+                StringBuilder buf = new StringBuilder();
+                while (true) {
+                    if (index >= expression.length()) {
+                        throw new UnsupportedException();
+                    }
+                    char c = expression.charAt(index++);
+                    if (c == ch) {
+                        break;
+                    }
+                    if (c == '\\') {
+                        if (index >= expression.length()) {
+                            throw new UnsupportedException();
+                        }
+                        c = expression.charAt(index++);
+                        if (c != '\\' && c != '\'' && c != '"') {
+                            throw new UnsupportedException();
+                        }
+                    }
+                    buf.append(c);
+                }
+                type = STRING;
+                token = buf.toString();
+            } else {
+                type = OPERATOR;
+                String op = expression.substring(start, index);
+                if (index < expression.length()) {
+                    String op2 = expression.substring(start, index + 1);
+                    if ("<=".equals(op2) || ">=".equals(op2)
+                            || "==".equals(op2) || "!=".equals(op2)
+                            || "&&".equals(op2) || "||".equals(op2)
+                            || "->".equals(op2) || "+=".equals(op2)) {
+                        op = op2;
+                        index++;
+                    }
+                }
+                if (!operators.contains(op)) {
+                    // Lambda expressions, assignments, string concatenation,
+                    // collection constructions, ...
+                    throw new UnsupportedException();
+                }
+                token = op;
+            }
+        }
+
+        private void skipDigits() {
+            while (index < expression.length()
+                    && isDigit(expression.charAt(index))) {
+                index++;
+            }
+        }
+
+        private static boolean isDigit(char ch) {
+            return ch >= '0' && ch <= '9';
+        }
+    }
+}
@@ -87,10 +87,12 @@ abstract class ELNode {
 
 	private ELNode.Nodes expr;
         private boolean isDollarExpr;
+        private String text;
 
-	Root(ELNode.Nodes expr, boolean isDollarExpr) {
+	Root(ELNode.Nodes expr, boolean isDollarExpr, String text) {
 	    this.expr = expr;
             this.isDollarExpr = isDollarExpr;
+            this.text = text;
 	}
 
 	public void accept(Visitor v) throws JasperException {
@@ -100,6 +102,18 @@ abstract class ELNode {
 	public ELNode.Nodes getExpression() {
 	    return expr;
 	}
+
+        public boolean isDollarExpr() {
+            return isDollarExpr;
+        }
+
+        /**
+         * @return The source text of the expression, between the '${'
+         *         (or '#{') and the closing '}'
+         */
+        public String getText() {
+            return text;
+        }
     }
 
     /**
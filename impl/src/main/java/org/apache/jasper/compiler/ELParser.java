@@ -79,6 +79,7 @@ public class ELParser {
     private String expression;	// The EL expression
     private boolean escapeBS;	// is '\' an escape char in text outside EL?
     private boolean isDollarExpr;
+    private String ELtext;	// Source text of the last EL expression
 
     private static final String reservedWords[] = {
         "and", "div", "empty", "eq", "false",
@@ -106,7 +107,8 @@ public class ELParser {
 	    }
 	    ELNode.Nodes elexpr = parser.parseEL();
 	    if (! elexpr.isEmpty()) {
-		parser.expr.add(new ELNode.Root(elexpr, parser.isDollarExpr));
+		parser.expr.add(new ELNode.Root(elexpr, parser.isDollarExpr,
+                                                parser.ELtext));
 	    }
 	}
 	return parser.expr;
@@ -122,10 +124,13 @@ public class ELParser {
 
 	StringBuilder buf = new StringBuilder();
 	ELexpr = new ELNode.Nodes();
+	int start = index;
+	int end = -1;
 	while (hasNext()) {
 	    nextToken();
 	    if (curToken instanceof Char) {
 		if (curToken.toChar() == '}') {
+		    end = index - 1;
 		    break;
 		}
 		buf.append(curToken.toChar());
@@ -142,6 +147,7 @@ public class ELParser {
 	if (buf.length() > 0) {
 	    ELexpr.add(new ELNode.ELText(buf.toString()));
 	}
+	ELtext = expression.substring(start, end < 0 ? index : end);
 
 	return ELexpr;
     }
@@ -70,7 +70,9 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
 
@@ -116,11 +118,16 @@ class Generator {
     private BeanRepository beanInfo;
     private JspCompilationContext ctxt;
     private boolean isPoolingEnabled;
+    private boolean isSkipConstantSetters;
+    private boolean isReuseJspFragments;
     private boolean breakAtLF;
     private boolean genBytes;
     private PageInfo pageInfo;
     private Set<String> tagHandlerPoolNames;
     private GenBuffer arrayBuffer;
+    private boolean isCompileEL;
+    private GenBuffer elBuffer;
+    private HashMap<String, String> elMethodNames;
 
     /**
      * @param s the input string
@@ -322,6 +329,107 @@ class Generator {
         page.visit(new TagHandlerPoolVisitor(tagHandlerPoolNames));
     }
 
+    /**
+     * Finds the sibling custom actions that can share one tag handler.
+     *
+     * Sibling actions of the same tag handler pool never overlap, and
+     * their tag handlers get the same attribute set, so the spec allows a
+     * single tag handler to serve them all in turn.  The first of them
+     * takes the tag handler from the pool, and the last returns it.  A
+     * scriptlet between siblings ends the run, since it may open or close
+     * a Java block, and so may a tag whose body contains a scriptlet.
+     * Tag handlers that implement TryCatchFinally are not shared, so that
+     * they are still returned to the pool when an exception is thrown.
+     */
+    private void compileSharedTagHandlerList(Node.Nodes page)
+        throws JasperException {
+
+        class ScriptletVisitor extends Node.Visitor {
+
+            private boolean hasScriptlet;
+
+            public void visit(Node.Scriptlet n) throws JasperException {
+                hasScriptlet = true;
+            }
+        }
+
+        class SharedTagHandlerVisitor extends Node.Visitor {
+
+            private int sharedVarCount;
+
+            protected void visitBody(Node n) throws JasperException {
+                if (n.getBody() != null) {
+                    shareTagHandlers(n.getBody());
+                }
+                super.visitBody(n);
+            }
+
+            private void shareTagHandlers(Node.Nodes body)
+                    throws JasperException {
+                // Runs of sharing candidates, by tag handler pool name
+                Map<String, List<Node.CustomTag>> runs =
+                    new LinkedHashMap<String, List<Node.CustomTag>>();
+                for (int i = 0; i < body.size(); i++) {
+                    Node n = body.getNode(i);
+                    if (hasScriptlet(n)) {
+                        share(runs);
+                        runs.clear();
+                    } else if (n instanceof Node.CustomTag
+                            && canShareTagHandler((Node.CustomTag) n)) {
+                        Node.CustomTag tag = (Node.CustomTag) n;
+                        List<Node.CustomTag> run =
+                            runs.get(tag.getTagHandlerPoolName());
+                        if (run == null) {
+                            run = new ArrayList<Node.CustomTag>();
+                            runs.put(tag.getTagHandlerPoolName(), run);
+                        } else if (run.get(0).getTagHandlerClass()
+                                != tag.getTagHandlerClass()) {
+                            // The prefix was mapped to another tag library
+                            continue;
+                        }
+                        run.add(tag);
+                    }
+                }
+                share(runs);
+            }
+
+            private void share(Map<String, List<Node.CustomTag>> runs) {
+                for (List<Node.CustomTag> run: runs.values()) {
+                    if (run.size() < 2) {
+                        continue;
+                    }
+                    String var = "_jspx_th_shared_" + sharedVarCount++;
+                    for (int i = 0; i < run.size(); i++) {
+                        run.get(i).setSharedTagHandler(
+                            var, i == 0, i == run.size() - 1);
+                    }
+                }
+            }
+
+            private boolean canShareTagHandler(Node.CustomTag n) {
+                return !n.implementsSimpleTag()
+                    && !n.implementsTryCatchFinally()
+                    && !n.useTagPlugin()
+                    && !JspIdConsumer.class.isAssignableFrom(
+                        n.getTagHandlerClass());
+            }
+
+            private boolean hasScriptlet(Node n) throws JasperException {
+                if (n instanceof Node.Scriptlet) {
+                    return true;
+                }
+                if (n.getBody() == null) {
+                    return false;
+                }
+                ScriptletVisitor v = new ScriptletVisitor();
+                n.getBody().visit(v);
+                return v.hasScriptlet;
+            }
+        }
+
+        page.visit(new SharedTagHandlerVisitor());
+    }
+
 
     /**
      * Generates the _jspInit() method for instantiating the tag handler pools.
@@ -378,6 +486,38 @@ class Generator {
         out.println();
     }
 
+    /**
+     * Generates the getTagHandlerPools() method, which exposes the tag
+     * handler pools of a page to the container, by name.
+     */
+    private void generateGetTagHandlerPools() {
+
+        if (!isPoolingEnabled || tagHandlerPoolNames.isEmpty()
+                || ctxt.isTagFile()) {
+            return;
+        }
+
+        out.printil("public java.util.Map<String, "
+                    + "org.apache.jasper.runtime.TagHandlerPool> "
+                    + "getTagHandlerPools() {");
+        out.pushIndent();
+        out.printil("java.util.Map<String, "
+                    + "org.apache.jasper.runtime.TagHandlerPool> pools =");
+        out.printil("    new java.util.HashMap<String, "
+                    + "org.apache.jasper.runtime.TagHandlerPool>();");
+        for (String tagHandlerPoolName: tagHandlerPoolNames) {
+            out.printin("pools.put(");
+            out.print(quote(tagHandlerPoolName));
+            out.print(", ");
+            out.print(tagHandlerPoolName);
+            out.println(");");
+        }
+        out.printil("return pools;");
+        out.popIndent();
+        out.printil("}");
+        out.println();
+    }
+
     /**
      * Generate preamble package name
      * (shared by servlet and tag handler preamble generation)
@@ -532,6 +672,7 @@ class Generator {
 
         generateTagHandlerInit();
         generateTagHandlerDestroy();
+        generateGetTagHandlerPools();
     }
 
     /**
@@ -556,6 +697,11 @@ class Generator {
         out.println(pageInfo.getExtends());
         out.printin(
             "    implements org.apache.jasper.runtime.JspSourceDependent");
+        if (isPoolingEnabled && !tagHandlerPoolNames.isEmpty()) {
+            out.println(",");
+            out.printin(
+                "                 org.apache.jasper.runtime.TagHandlerPoolOwner");
+        }
         if (!pageInfo.isThreadSafe()) {
             out.println(",");
             out.printin("                 SingleThreadModel");
@@ -630,7 +776,14 @@ class Generator {
         out.printin("\t\t\t");
         out.print(quote(pageInfo.getErrorPage()));
         out.print(", " + pageInfo.isSession());
-        out.print(", " + pageInfo.getBuffer());
+        if (pageInfo.getBufferValue() == null && pageInfo.getBuffer() != 0
+                && pageInfo.isAutoFlush()) {
+            // Let the runtime choose the buffer size; a page that does not
+            // autoFlush must get at least the default size
+            out.print(", javax.servlet.jsp.JspWriter.DEFAULT_BUFFER");
+        } else {
+            out.print(", " + pageInfo.getBuffer());
+        }
         out.print(", " + pageInfo.isAutoFlush());
         out.println(");");
         out.printil("_jspx_page_context = pageContext;");
@@ -730,6 +883,9 @@ class Generator {
         private String pushBodyCountVar;
         private String simpleTagHandlerVar;
         private boolean isSimpleTagHandler;
+        // The fragments passed to the simple tag handler being generated,
+        // which are put back into the fragment cache after doTag()
+        private ArrayList<String> simpleTagFragments;
         private boolean isFragment;
         private boolean isTagFile;
         private ServletWriter out;
@@ -787,12 +943,16 @@ class Generator {
                 }
                 return v;
             } else if (attr.isELInterpreterInput()) {
-                v = JspUtil.interpreterCall(
-                        this.isTagFile,
+                v = compileEL(
                         v,
                         expectedType,
-                        attr.getEL().getMapName(),
-                        null, null, null);
+                        attr.getEL(),
+                        JspUtil.interpreterCall(
+                            this.isTagFile,
+                            v,
+                            expectedType,
+                            attr.getEL().getMapName(),
+                            null, null, null));
                 if (encode) {
                     return "org.apache.jasper.runtime.JspRuntimeLibrary.URLEncode("
                         + v
@@ -870,15 +1030,33 @@ class Generator {
 
         public void visit(Node.ELExpression n) throws JasperException {
             n.setBeginJavaLine(out.getJavaLine());
-            if (n.getEL() != null) {
+            if (n.getEL() != null && ctxt.getOptions().isEscapeTemplateEL()) {
+                out.printil(
+                    "org.apache.jasper.runtime.JspRuntimeLibrary.writeEscapedXml(out, "
+                        + compileEL(
+                            n.getText(),
+                            String.class,
+                            n.getEL(),
+                            JspUtil.interpreterCall(
+                                this.isTagFile,
+                                n.getText(),
+                                String.class,
+                                n.getEL().getMapName(),
+                                null, null, null))
+                        + ");");
+            } else if (n.getEL() != null) {
                 out.printil(
                     "out.write("
-                        + JspUtil.interpreterCall(
-                            this.isTagFile,
+                        + compileEL(
                             n.getText(),
                             String.class,
-                            n.getEL().getMapName(),
-                            null, null, null)
+                            n.getEL(),
+                            JspUtil.interpreterCall(
+                                this.isTagFile,
+                                n.getText(),
+                                String.class,
+                                n.getEL().getMapName(),
+                                null, null, null))
                         + ");");
             } else {
                 out.printil(
@@ -1040,16 +1218,23 @@ class Generator {
                 java.lang.reflect.Method meth =
                     JspRuntimeLibrary.getReadMethod(bean, property);
                 String methodName = meth.getName();
-                out.printil(
-                    "out.write(org.apache.jasper.runtime.JspRuntimeLibrary.toString("
-                        + "((("
+                String getter = "((("
                         + beanName
                         + ")_jspx_page_context.findAttribute("
                         + "\""
                         + name
                         + "\"))."
                         + methodName
-                        + "())));");
+                        + "())";
+                if (meth.getReturnType().isPrimitive()) {
+                    // Let the writer format the value, without boxing it
+                    // or creating a String
+                    out.printil("out.print(" + getter + ");");
+                } else {
+                    out.printil(
+                        "out.write(org.apache.jasper.runtime.JspRuntimeLibrary.toString("
+                            + getter + "));");
+                }
             } else {
                 // The object could be a custom action with an associated
                 // VariableInfo entry for this name.
@@ -1643,6 +1828,23 @@ class Generator {
             String tagEvalVar = "_jspx_eval_" + baseVar;
             String tagHandlerVar = "_jspx_th_" + baseVar;
             String tagPushBodyCountVar = "_jspx_push_body_count_" + baseVar;
+            String sharedVar = n.getSharedTagHandlerVar();
+            String tagHandlerClassName =
+                JspUtil.getCanonicalName(handlerInfo.getTagHandlerClass());
+
+            // Take the tag handler shared with the following siblings
+            if (sharedVar != null && n.isFirstSharedTagHandlerUse()) {
+                out.printin(tagHandlerClassName);
+                out.print(" ");
+                out.print(sharedVar);
+                out.print(" = (");
+                out.print(tagHandlerClassName);
+                out.print(") ");
+                out.print(n.getTagHandlerPoolName());
+                out.print(".get(");
+                out.print(tagHandlerClassName);
+                out.println(".class);");
+            }
 
             // If the tag contains no scripting element, generate its codes
             // to a method.
@@ -1671,10 +1873,30 @@ class Generator {
                     out.print(", ");
                     out.print(pushBodyCountVar);
                 }
-                out.println("))");
-                out.pushIndent();
-                out.printil((methodNesting > 0) ? "return true;" : "return;");
-                out.popIndent();
+                if (sharedVar != null) {
+                    out.print(", ");
+                    out.print(sharedVar);
+                    out.println(")) {");
+                    out.pushIndent();
+                    out.printin(n.getTagHandlerPoolName());
+                    out.print(".reuse(");
+                    out.print(sharedVar);
+                    out.println(");");
+                    out.printil((methodNesting > 0) ? "return true;" : "return;");
+                    out.popIndent();
+                    out.printil("}");
+                    if (n.isLastSharedTagHandlerUse()) {
+                        out.printin(n.getTagHandlerPoolName());
+                        out.print(".reuse(");
+                        out.print(sharedVar);
+                        out.println(");");
+                    }
+                } else {
+                    out.println("))");
+                    out.pushIndent();
+                    out.printil((methodNesting > 0) ? "return true;" : "return;");
+                    out.popIndent();
+                }
 
                 // Set up new buffer for the method
                 outSave = out;
@@ -1705,6 +1927,12 @@ class Generator {
                     out.print(", int[] ");
                     out.print(pushBodyCountVar);
                 }
+                if (sharedVar != null) {
+                    out.print(", ");
+                    out.print(tagHandlerClassName);
+                    out.print(" ");
+                    out.print(sharedVar);
+                }
                 out.println(")");
                 out.printil("        throws Throwable {");
                 out.pushIndent();
@@ -2004,7 +2232,16 @@ class Generator {
                     }    
                 }
 
-                if (genBytes) {
+                if (genBytes && pageInfo.getBuffer() != 0) {
+                    // The response encoding of a buffered page can change
+                    // between requests, for instance when the page is
+                    // included, so it is compared on every write
+                    out.printin("((org.apache.jasper.runtime.JspWriterImpl)out).write(_jspx_encoding.equals(response.getCharacterEncoding()), ");
+                    out.print(arrayName);
+                    out.print(", ");
+                    out.print(arrayName);
+                    out.println("S);");
+                } else if (genBytes) {
                     out.printin("((org.apache.jasper.runtime.JspWriterImpl)out).write(_jspx_same_encoding(response.getCharacterEncoding()), ");
                     out.print(arrayName);
                     out.print(", ");
@@ -2105,10 +2342,7 @@ class Generator {
         public void visit(Node.JspBody n) throws JasperException {
             if (n.getBody() != null) {
                 if (isSimpleTagHandler) {
-                    out.printin(simpleTagHandlerVar);
-                    out.print(".setJspBody(");
-                    generateJspFragment(n, simpleTagHandlerVar);
-                    out.println(");");
+                    generateSetJspBody(n, simpleTagHandlerVar);
                 } else {
                     visitBody(n);
                 }
@@ -2246,7 +2480,23 @@ class Generator {
             if (n.getAtSTag() != null) {
                 n.getAtSTag().visit(this);
             }
+
+            // A plugin that catches the exceptions of the body, in place of
+            // a TryCatchFinally tag handler, pops the bodies pushed by the
+            // body itself, so they must not be counted by the enclosing
+            // TryCatchFinally tag handler
+            String tmpPushBodyCountVar = pushBodyCountVar;
+            if (pushBodyCountVar != null && n.implementsTryCatchFinally()) {
+                pushBodyCountVar = "_jspx_push_body_count_"
+                    + createTagVarName(n.getQName(), n.getPrefix(),
+                                       n.getLocalName());
+                out.printin("int[] ");
+                out.print(pushBodyCountVar);
+                out.println(" = new int[] { 0 };");
+            }
             visitBody(n);
+            pushBodyCountVar = tmpPushBodyCountVar;
+
             if (n.getAtETag() != null) {
                 n.getAtETag().visit(this);
             }
@@ -2276,8 +2526,37 @@ class Generator {
             out.print(" ");
             out.print(tagHandlerVar);
             out.print(" = ");
-            if (isPoolingEnabled &&
+            // Whether the tag handler holds the constant attribute values
+            String configured = null;
+            if (n.getSharedTagHandlerVar() != null) {
+                out.print(n.getSharedTagHandlerVar());
+                out.println(";");
+                if (isSkipConstantSetters && !n.isFirstSharedTagHandlerUse()) {
+                    configured = "true";
+                }
+            } else if (isPoolingEnabled &&
                     !JspIdConsumer.class.isAssignableFrom(tagHandlerClass)) {
+                if (isSkipConstantSetters) {
+                    // A pooled tag handler may still hold the constant
+                    // values set by its last use
+                    configured = tagHandlerVar + "_configured";
+                    out.print("(");
+                    out.print(tagHandlerClassName);
+                    out.print(") ");
+                    out.print(n.getTagHandlerPoolName());
+                    out.println(".getPooled();");
+                    out.printin("boolean ");
+                    out.print(configured);
+                    out.print(" = ");
+                    out.print(tagHandlerVar);
+                    out.println(" != null;");
+                    out.printin("if (!");
+                    out.print(configured);
+                    out.println(")");
+                    out.pushIndent();
+                    out.printin(tagHandlerVar);
+                    out.print(" = ");
+                }
                 out.print("(");
                 out.print(tagHandlerClassName);
                 out.print(") ");
@@ -2285,6 +2564,9 @@ class Generator {
                 out.print(".get(");
                 out.print(tagHandlerClassName);
                 out.println(".class);");
+                if (isSkipConstantSetters) {
+                    out.popIndent();
+                }
             } else {
                 out.print("(_jspx_resourceInjector != null) ? ");
                 out.print("_jspx_resourceInjector.createTagHandlerInstance(");
@@ -2294,7 +2576,7 @@ class Generator {
                 out.println("();");
             }
 
-            generateSetters(n, tagHandlerVar, handlerInfo, false);
+            generateSetters(n, tagHandlerVar, handlerInfo, false, configured);
 
             if (n.implementsTryCatchFinally()) {
                 out.printin("int[] ");
@@ -2332,7 +2614,11 @@ class Generator {
                     // Assume EVAL_BODY_BUFFERED
                     genBytes = false;  // Can't handle bytes in a body content
                     out.pushIndent();
-                    out.printil("out = _jspx_page_context.pushBody();");
+                    if (n.isPassThroughBody()) {
+                        out.printil("out = org.apache.jasper.runtime.JspRuntimeLibrary.pushPassThroughBody(_jspx_page_context);");
+                    } else {
+                        out.printil("out = _jspx_page_context.pushBody();");
+                    }
                     if (n.implementsTryCatchFinally()) {
                         out.printin(tagPushBodyCountVar);
                         out.println("[0]++;");
@@ -2374,6 +2660,13 @@ class Generator {
             String tagEvalVar,
             String tagPushBodyCountVar) {
 
+            // A shared tag handler is returned to the pool by the last of
+            // the siblings sharing it, or on SKIP_PAGE, and by the caller
+            // if the tag is generated to a method
+            boolean isShared = n.getSharedTagHandlerVar() != null;
+            boolean inMethod = n.getChildInfo().isScriptless()
+                && !n.getChildInfo().hasScriptingVars();
+
             if (!n.hasEmptyBody()) {
                 if (n.implementsIterationTag()) {
                     out.printin("int evalDoAfterBody = ");
@@ -2422,7 +2715,7 @@ class Generator {
             out.println(
                 ".doEndTag() == javax.servlet.jsp.tagext.Tag.SKIP_PAGE) {");
             out.pushIndent();
-            if (!n.implementsTryCatchFinally()) {
+            if (!n.implementsTryCatchFinally() && !(isShared && inMethod)) {
                 if (isPoolingEnabled) {
                     out.printin(n.getTagHandlerPoolName());
                     out.print(".reuse(");
@@ -2470,7 +2763,14 @@ class Generator {
                 out.println(".doFinally();");
             }
 
-            if (isPoolingEnabled) {
+            if (isShared) {
+                if (n.isLastSharedTagHandlerUse() && !inMethod) {
+                    out.printin(n.getTagHandlerPoolName());
+                    out.print(".reuse(");
+                    out.print(tagHandlerVar);
+                    out.println(");");
+                }
+            } else if (isPoolingEnabled) {
                 out.printin(n.getTagHandlerPoolName());
                 out.print(".reuse(");
                 out.print(tagHandlerVar);
@@ -2530,7 +2830,16 @@ class Generator {
             out.print(tagHandlerClassName);
             out.println("();");
 
-            generateSetters(n, tagHandlerVar, handlerInfo, true);
+            // Only the fragments of handlers known not to keep them after
+            // doTag() are reused: the handlers generated for tag files, and
+            // those listed in tagPlugins.xml
+            ArrayList<String> simpleTagFragmentsSave = simpleTagFragments;
+            simpleTagFragments = (isReuseJspFragments
+                                  && (n.getTagFileInfo() != null
+                                      || n.isReuseJspFragments()))
+                ? new ArrayList<String>() : null;
+
+            generateSetters(n, tagHandlerVar, handlerInfo, true, null);
 
             // Set the body
             if (findJspBody(n) == null) {
@@ -2540,10 +2849,7 @@ class Generator {
                  * is empty
                  */
                 if (!n.hasEmptyBody()) {
-                    out.printin(tagHandlerVar);
-                    out.print(".setJspBody(");
-                    generateJspFragment(n, tagHandlerVar);
-                    out.println(");");
+                    generateSetJspBody(n, tagHandlerVar);
                 }
             } else {
                 /*
@@ -2564,6 +2870,15 @@ class Generator {
             out.printin(tagHandlerVar);
             out.println(".doTag();");
 
+            if (simpleTagFragments != null) {
+                for (String fragmentVar: simpleTagFragments) {
+                    out.printin("_jspx_release_fragment(");
+                    out.print(fragmentVar);
+                    out.println(");");
+                }
+            }
+            simpleTagFragments = simpleTagFragmentsSave;
+
             restoreScriptingVars(n, VariableInfo.AT_BEGIN);
 
             // Synchronize AT_BEGIN scripting variables
@@ -2908,14 +3223,18 @@ class Generator {
                     attrType = javax.el.ValueExpression.class;
                 }
                 attrValue =
-                    JspUtil.interpreterCall(
-                        this.isTagFile,
+                    compileEL(
                         attrValue,
                         attrType,
-                        attr.getEL().getMapName(),
-                        attr.getExpectedType(),
-                        attr.getExpectedReturnType(),
-                        attr.getExpectedParamTypes());
+                        attr.getEL(),
+                        JspUtil.interpreterCall(
+                            this.isTagFile,
+                            attrValue,
+                            attrType,
+                            attr.getEL().getMapName(),
+                            attr.getExpectedType(),
+                            attr.getExpectedReturnType(),
+                            attr.getExpectedParamTypes()));
             } else {
                 attrValue =
                     convertString(
@@ -2965,11 +3284,17 @@ class Generator {
             return aliasMapVar;
         }
 
+        /*
+         * @param configured A boolean expression telling whether the tag
+         * handler already holds the values of the attributes with a
+         * constant value, or null if it does not
+         */
         private void generateSetters(
             Node.CustomTag n,
             String tagHandlerVar,
             TagHandlerInfo handlerInfo,
-            boolean simpleTag)
+            boolean simpleTag,
+            String configured)
             throws JasperException {
 
             // Set context
@@ -3033,6 +3358,12 @@ class Generator {
             for (int i = 0; attrs != null && i < attrs.length; i++) {
                 String attrValue =
                     evaluateAttribute(handlerInfo, attrs[i], n, tagHandlerVar);
+                if (simpleTag && simpleTagFragments != null
+                        && attrs[i].isNamedAttribute()
+                        && n.checkIfAttributeIsJspFragment(
+                               attrs[i].getName())) {
+                    simpleTagFragments.add(attrValue);
+                }
 
                 if (attrs[i].isDynamic()) {
                     out.printin(tagHandlerVar);
@@ -3050,15 +3381,43 @@ class Generator {
                     out.print(attrValue);
                     out.println(");");
                 } else {
+                    String localName = attrs[i].getLocalName();
+                    // The setter of a constant value is skipped only if the
+                    // value can be read back and compared, in case the tag
+                    // handler changed it, for instance in doEndTag() or
+                    // release()
+                    Method getter = (configured != null
+                                     && attrs[i].isLiteral())
+                        ? handlerInfo.getGetterMethod(localName) : null;
+                    boolean guarded = getter != null;
+                    if (guarded) {
+                        out.printin("if (");
+                        if (!"true".equals(configured)) {
+                            out.print("!");
+                            out.print(configured);
+                            out.print(" || ");
+                        }
+                        String value = tagHandlerVar + "."
+                            + getter.getName() + "()";
+                        if (getter.getReturnType().isPrimitive()) {
+                            out.print(value + " != " + attrValue);
+                        } else {
+                            out.print("!java.util.Objects.equals(" + value
+                                      + ", " + attrValue + ")");
+                        }
+                        out.println(")");
+                        out.pushIndent();
+                    }
                     out.printin(tagHandlerVar);
                     out.print(".");
                     out.print(
-                        handlerInfo
-                            .getSetterMethod(attrs[i].getLocalName())
-                            .getName());
+                        handlerInfo.getSetterMethod(localName).getName());
                     out.print("(");
                     out.print(attrValue);
                     out.println(");");
+                    if (guarded) {
+                        out.popIndent();
+                    }
                 }
             }
         }
@@ -3170,6 +3529,32 @@ class Generator {
             return scopeName;
         }
 
+        /**
+         * Generates the call to SimpleTag.setJspBody(), passing the body of
+         * the given node as a JspFragment.
+         */
+        private void generateSetJspBody(Node n, String tagHandlerVar)
+            throws JasperException {
+            if (simpleTagFragments != null) {
+                String fragmentVar = tagHandlerVar + "_body";
+                out.printin("javax.servlet.jsp.tagext.JspFragment ");
+                out.print(fragmentVar);
+                out.print(" = ");
+                generateJspFragment(n, tagHandlerVar);
+                out.println(";");
+                simpleTagFragments.add(fragmentVar);
+                out.printin(tagHandlerVar);
+                out.print(".setJspBody(");
+                out.print(fragmentVar);
+                out.println(");");
+            } else {
+                out.printin(tagHandlerVar);
+                out.print(".setJspBody(");
+                generateJspFragment(n, tagHandlerVar);
+                out.println(");");
+            }
+        }
+
         /**
          * Generates anonymous JspFragment inner class which is passed as an
          * argument to SimpleTag.setJspBody().
@@ -3214,8 +3599,8 @@ class Generator {
             // we're not in a place where pageContext is defined (e.g.
             // in a fragment or in a tag file.
             out.print(
-                "new "
-                    + fragmentHelperClass.getClassName()
+                (simpleTagFragments != null ? "_jspx_fragment"
+                    : "new " + fragmentHelperClass.getClassName())
                     + "( "
                     + fragment.getId()
                     + ", _jspx_page_context, "
@@ -3364,11 +3749,57 @@ class Generator {
             out.printMultiLn(arrayBuffer.toString());
         }
 
+        // Append the methods evaluating compiled EL expressions
+        if (elBuffer != null) {
+            out.printMultiLn(elBuffer.toString());
+        }
+
         // Close the class definition
         out.popIndent();
         out.printil("}");
     }
 
+    /**
+     * Compiles an EL expression into a method of the servlet, if the
+     * compileEL option is set, and the expression can be compiled.
+     *
+     * @param expression The EL expression
+     * @param expectedType The expected type of the expression
+     * @param el The parsed EL expression
+     * @param interpreterCall The call to the EL interpreter evaluating the
+     *        expression
+     * @return The call to the method evaluating the expression, or
+     *         interpreterCall if the expression is not compiled
+     */
+    private String compileEL(String expression, Class<?> expectedType,
+                             ELNode.Nodes el, String interpreterCall) {
+        if (!isCompileEL || el == null
+                || expectedType == javax.el.ValueExpression.class
+                || expectedType == javax.el.MethodExpression.class) {
+            return interpreterCall;
+        }
+        String key = expectedType.getName() + ' ' + expression;
+        if (elMethodNames == null) {
+            elMethodNames = new HashMap<String, String>();
+        }
+        String methodName = elMethodNames.get(key);
+        if (methodName == null) {
+            ELCompiler compiler = ELCompiler.parse(expression, el);
+            if (compiler == null) {
+                return interpreterCall;
+            }
+            if (elBuffer == null) {
+                elBuffer = new GenBuffer();
+                elBuffer.getOut().pushIndent();
+            }
+            methodName = "_jspx_el_" + elMethodNames.size();
+            compiler.generate(elBuffer.getOut(), methodName, expectedType,
+                              interpreterCall);
+            elMethodNames.put(key, methodName);
+        }
+        return methodName + "(_jspx_page_context)";
+    }
+
     /**
      * Generates the ending part of the static portion of the servlet.
      */
@@ -3417,9 +3848,14 @@ class Generator {
         arrayBuffer = null;
         err = compiler.getErrorDispatcher();
         ctxt = compiler.getCompilationContext();
+        isReuseJspFragments = ctxt.getOptions().isReuseJspFragments();
+        // The compiled expressions get the page context from their caller,
+        // which a tag handler does not have
+        isCompileEL = ctxt.getOptions().isCompileEL() && !ctxt.isTagFile();
         fragmentHelperClass =
             new FragmentHelperClass(ctxt.getFullClassName(),
-                                    ctxt.getServletClassName() + "Helper");
+                                    ctxt.getServletClassName() + "Helper",
+                                    isReuseJspFragments, ctxt.isTagFile());
         pageInfo = compiler.getPageInfo();
 
         /*
@@ -3439,10 +3875,14 @@ class Generator {
         }
         beanInfo = pageInfo.getBeanRepository();
         breakAtLF = ctxt.getOptions().getMappedFile();
-        genBytes = pageInfo.getBuffer() == 0 &&
-                   ctxt.getOptions().genStringAsByteArray();
+        genBytes = ctxt.getOptions().genStringAsByteArray() &&
+                   (pageInfo.getBuffer() == 0 ||
+                    (ctxt.getOptions().genBufferedStringAsByteArray() &&
+                     !ctxt.isTagFile()));
         if (isPoolingEnabled) {
             tagHandlerPoolNames = new HashSet<String>();
+            isSkipConstantSetters =
+                ctxt.getOptions().isSkipConstantSetters();
         }
     }
 
@@ -3462,6 +3902,7 @@ class Generator {
 
         if (gen.isPoolingEnabled) {
             gen.compileTagHandlerPoolList(page);
+            gen.compileSharedTagHandlerList(page);
         }
         if (gen.ctxt.isTagFile()) {
             JasperTagInfo tagInfo = (JasperTagInfo)gen.ctxt.getTagInfo();
@@ -3890,6 +4331,7 @@ class Generator {
     private static class TagHandlerInfo {
 
         private HashMap<String, Method> methodMaps;
+        private HashMap<String, Method> getterMaps;
         private HashMap<String, Class<?>> propertyEditorMaps;
         private Class tagHandlerClass;
 
@@ -3905,6 +4347,7 @@ class Generator {
             throws JasperException {
             this.tagHandlerClass = tagHandlerClass;
             this.methodMaps = new HashMap<String, Method>();
+            this.getterMaps = new HashMap<String, Method>();
             this.propertyEditorMaps = new HashMap<String, Class<?>>();
 
             try {
@@ -3918,6 +4361,10 @@ class Generator {
                      */
                     if (pd[i].getWriteMethod() != null) {
                         methodMaps.put(pd[i].getName(), pd[i].getWriteMethod());
+                        if (pd[i].getReadMethod() != null) {
+                            getterMaps.put(pd[i].getName(),
+                                           pd[i].getReadMethod());
+                        }
                     }
                     if (pd[i].getPropertyEditorClass() != null)
                         propertyEditorMaps.put(
@@ -3940,6 +4387,14 @@ class Generator {
             return methodMaps.get(attrName);
         }
 
+        /**
+         * Gets the getter of the property set by the given attribute, or
+         * null if the property cannot be read.
+         */
+        public Method getGetterMethod(String attrName) {
+            return getterMaps.get(attrName);
+        }
+
         /**
          * XXX
          */
@@ -4069,12 +4524,22 @@ class Generator {
         private String className;
         private String fullClassName;
 
+        // True if the fragments are reused through a JspFragmentCache
+        private boolean reuse;
+
+        // True if the fragments belong to a tag handler instance, rather
+        // than to a servlet
+        private boolean tagFile;
+
         // Buffer for entire helper class
         private GenBuffer classBuffer = new GenBuffer();
 
-        public FragmentHelperClass(String outterClassName, String className) {
+        public FragmentHelperClass(String outterClassName, String className,
+                                   boolean reuse, boolean tagFile) {
             this.fullClassName = outterClassName + '$' + className;
             this.className = className;
+            this.reuse = reuse;
+            this.tagFile = tagFile;
         }
 
         public String getClassName() {
@@ -4112,6 +4577,28 @@ class Generator {
             out.printil("this._jspx_push_body_count = _jspx_push_body_count;");
             out.popIndent();
             out.printil("}");
+            if (reuse) {
+                out.println();
+                out.printil(
+                    "public void rebind( JspContext jspContext, "
+                        + "javax.servlet.jsp.tagext.JspTag _jspx_parent, "
+                        + "int[] _jspx_push_body_count ) {");
+                out.pushIndent();
+                out.printil("rebind( jspContext, _jspx_parent );");
+                out.printil("this._jspx_parent = _jspx_parent;");
+                out.printil(
+                    "this._jspx_push_body_count = _jspx_push_body_count;");
+                out.popIndent();
+                out.printil("}");
+                out.println();
+                out.printil("protected void unbind() {");
+                out.pushIndent();
+                out.printil("super.unbind();");
+                out.printil("this._jspx_parent = null;");
+                out.printil("this._jspx_push_body_count = null;");
+                out.popIndent();
+                out.printil("}");
+            }
         }
 
         public Fragment openFragment(
@@ -4227,9 +4714,77 @@ class Generator {
             out.printil("}"); // invoke method
             out.popIndent();
             out.printil("}"); // helper class
+            if (reuse) {
+                generateFragmentCache(out);
+            }
             out.popIndent();
         }
 
+        /*
+         * Generates the cache of the fragments, and the methods that take
+         * a fragment from it, or instantiate one if there is none, and put
+         * it back.  A servlet caches the fragments of all its requests,
+         * while a tag handler, which is instantiated for each invocation of
+         * its tag file, only caches those of the calls in its own body, and
+         * creates its cache on the first of them.
+         */
+        private void generateFragmentCache(ServletWriter out) {
+            String newCache = "new org.apache.jasper.runtime.JspFragmentCache("
+                + fragments.size() + (tagFile ? ", false)" : ")");
+            out.println();
+            if (tagFile) {
+                out.printil(
+                    "private org.apache.jasper.runtime.JspFragmentCache "
+                        + "_jspx_fragments;");
+            } else {
+                out.printil(
+                    "private final org.apache.jasper.runtime.JspFragmentCache "
+                        + "_jspx_fragments =");
+                out.printil("    " + newCache + ";");
+            }
+            out.println();
+            out.printil(
+                "private " + className + " _jspx_fragment( "
+                    + "int discriminator, JspContext jspContext, "
+                    + "javax.servlet.jsp.tagext.JspTag _jspx_parent, "
+                    + "int[] _jspx_push_body_count ) {");
+            out.pushIndent();
+            if (tagFile) {
+                out.printil(className + " fragment = (_jspx_fragments == null)"
+                            + " ? null");
+                out.printil("    : (" + className
+                            + ") _jspx_fragments.take(discriminator);");
+            } else {
+                out.printil(className + " fragment = (" + className
+                            + ") _jspx_fragments.take(discriminator);");
+            }
+            out.printil("if (fragment == null) {");
+            out.pushIndent();
+            out.printil("return new " + className + "( discriminator, "
+                        + "jspContext, _jspx_parent, _jspx_push_body_count );");
+            out.popIndent();
+            out.printil("}");
+            out.printil("fragment.rebind( jspContext, _jspx_parent, "
+                        + "_jspx_push_body_count );");
+            out.printil("return fragment;");
+            out.popIndent();
+            out.printil("}");
+            out.println();
+            out.printil("private void _jspx_release_fragment( "
+                        + "javax.servlet.jsp.tagext.JspFragment fragment ) {");
+            out.pushIndent();
+            if (tagFile) {
+                out.printil("if (_jspx_fragments == null) {");
+                out.pushIndent();
+                out.printil("_jspx_fragments = " + newCache + ";");
+                out.popIndent();
+                out.printil("}");
+            }
+            out.printil("_jspx_fragments.put(fragment);");
+            out.popIndent();
+            out.printil("}");
+        }
+
         public String toString() {
             return classBuffer.toString();
         }
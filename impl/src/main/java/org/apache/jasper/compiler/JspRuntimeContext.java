@@ -87,7 +87,9 @@ import javax.tools.JavaFileObject;
 import org.apache.jasper.Constants;
 import org.apache.jasper.JspCompilationContext;
 import org.apache.jasper.Options;
+import org.apache.jasper.runtime.AdaptiveBufferSize;
 import org.apache.jasper.runtime.JspFactoryImpl;
+import org.apache.jasper.runtime.TagHandlerPool;
 import org.apache.jasper.security.SecurityClassLoad;
 import org.apache.jasper.servlet.JspServletWrapper;
 
@@ -299,6 +301,44 @@ public final class JspRuntimeContext implements Runnable {
         return jsps.size();
     }
 
+    /**
+     * Returns the buffer sizes learned by the JSPs that do not specify
+     * their buffer size, if the adaptiveBufferSize option is set.
+     *
+     * @return A map from the URIs of the JSPs to their buffer sizes
+     */
+    public Map<String, Integer> getAdaptiveBufferSizes() {
+        Map<String, Integer> sizes = new HashMap<String, Integer>();
+        for (Map.Entry<String, JspServletWrapper> e: jsps.entrySet()) {
+            AdaptiveBufferSize size = e.getValue().getAdaptiveBufferSize();
+            if (size != null) {
+                sizes.put(e.getKey(), Integer.valueOf(size.getBufferSize()));
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Returns the tag handler pools of the loaded JSPs.  Their counters
+     * are kept only if the tagpoolStatistics or tagpoolAdaptive init
+     * parameter is set.
+     *
+     * @return A map from the URIs of the JSPs to their pools, keyed by
+     *         pool name
+     */
+    public Map<String, Map<String, TagHandlerPool>> getTagHandlerPools() {
+        Map<String, Map<String, TagHandlerPool>> pools =
+            new HashMap<String, Map<String, TagHandlerPool>>();
+        for (Map.Entry<String, JspServletWrapper> e: jsps.entrySet()) {
+            Map<String, TagHandlerPool> jspPools =
+                e.getValue().getTagHandlerPools();
+            if (!jspPools.isEmpty()) {
+                pools.put(e.getKey(), jspPools);
+            }
+        }
+        return pools;
+    }
+
     /**
      * Get the SecurityManager Policy CodeSource for this web
      * applicaiton context.
@@ -463,9 +503,10 @@ public final class JspRuntimeContext implements Runnable {
             }
 
             JspCompilationContext ctxt = jsw.getJspEngineContext();
-            // JspServletWrapper also synchronizes on this when
+            // JspServletWrapper also holds this lock when
             // it detects it has to do a reload
-            synchronized(jsw) {
+            jsw.getLock().lock();
+            try {
                 try {
                     ctxt.compile();
                 } catch (FileNotFoundException ex) {
@@ -475,6 +516,8 @@ public final class JspRuntimeContext implements Runnable {
                         Localizer.getMessage("jsp.error.background.compile"),
                         t);
                 }
+            } finally {
+                jsw.getLock().unlock();
             }
         }
     }
@@ -1383,6 +1383,9 @@ abstract class Node implements TagConstants {
 	private JspAttribute[] jspAttrs;
 	private TagData tagData;
 	private String tagHandlerPoolName;
+	private String sharedTagHandlerVar;
+	private boolean firstSharedTagHandlerUse;
+	private boolean lastSharedTagHandlerUse;
 	private TagInfo tagInfo;
 	private TagFileInfo tagFileInfo;
 	private Class tagHandlerClass;
@@ -1401,6 +1404,10 @@ abstract class Node implements TagConstants {
 	private Integer numCount;
 	private boolean useTagPlugin;
 	private TagPluginContext tagPluginContext;
+	// True if the body is written straight to the enclosing writer
+	private boolean passThroughBody;
+	// True if the fragments passed to the handler can be reused
+	private boolean reuseJspFragments;
         private int jspId;
         private HashMap<String, String> tempVars;
                 // The temporary name for saving and restoring a scripting var
@@ -1555,6 +1562,39 @@ abstract class Node implements TagConstants {
 	    return tagHandlerPoolName;
 	}
 
+	/*
+	 * Sets the variable holding the tag handler that this custom action
+	 * shares with sibling custom actions of the same tag handler pool.
+	 *
+	 * @param var The variable name
+	 * @param first true if this is the first custom action to use the
+	 *              tag handler, which takes it from the pool
+	 * @param last true if this is the last custom action to use the tag
+	 *             handler, which returns it to the pool
+	 */
+	public void setSharedTagHandler(String var, boolean first,
+					boolean last) {
+	    sharedTagHandlerVar = var;
+	    firstSharedTagHandlerUse = first;
+	    lastSharedTagHandlerUse = last;
+	}
+
+	/*
+	 * @return The variable holding the shared tag handler, or null if
+	 * this custom action takes its own tag handler from the pool
+	 */
+	public String getSharedTagHandlerVar() {
+	    return sharedTagHandlerVar;
+	}
+
+	public boolean isFirstSharedTagHandlerUse() {
+	    return firstSharedTagHandlerUse;
+	}
+
+	public boolean isLastSharedTagHandlerUse() {
+	    return lastSharedTagHandlerUse;
+	}
+
 	public TagInfo getTagInfo() {
 	    return tagInfo;
 	}
@@ -1688,6 +1728,22 @@ abstract class Node implements TagConstants {
 	    return useTagPlugin;
 	}
 
+	public void setPassThroughBody(boolean passThroughBody) {
+	    this.passThroughBody = passThroughBody;
+	}
+
+	public boolean isPassThroughBody() {
+	    return passThroughBody;
+	}
+
+	public void setReuseJspFragments(boolean reuseJspFragments) {
+	    this.reuseJspFragments = reuseJspFragments;
+	}
+
+	public boolean isReuseJspFragments() {
+	    return reuseJspFragments;
+	}
+
 	public void setTagPluginContext(TagPluginContext tagPluginContext) {
 	    this.tagPluginContext = tagPluginContext;
 	}
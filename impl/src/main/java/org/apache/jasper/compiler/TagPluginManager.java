@@ -81,6 +81,10 @@ public class TagPluginManager {
 
     private boolean initialized = false;
     private HashMap<String, TagPlugin> tagPlugins = null;
+    // The BodyTag handlers that write their body out unchanged
+    private HashSet<String> passThroughBodyTags = null;
+    // The SimpleTag handlers that do not keep their fragments
+    private HashSet<String> reuseFragmentsTags = null;
     private ServletContext ctxt;
     private PageInfo pageInfo;
 
@@ -92,7 +96,11 @@ public class TagPluginManager {
 	    throws JasperException {
 
 	init(err);
-	if (tagPlugins == null || tagPlugins.size() == 0) {
+	if ((tagPlugins == null || tagPlugins.size() == 0)
+		&& (passThroughBodyTags == null
+		    || passThroughBodyTags.size() == 0)
+		&& (reuseFragmentsTags == null
+		    || reuseFragmentsTags.size() == 0)) {
 	    return;
 	}
 
@@ -102,6 +110,19 @@ public class TagPluginManager {
             public void visit(Node.CustomTag n)
                     throws JasperException {
                 invokePlugin(n);
+                if (!n.useTagPlugin() && n.implementsBodyTag()
+                        && passThroughBodyTags != null
+                        && passThroughBodyTags.contains(
+                            n.getTagHandlerClass().getName())) {
+                    n.setPassThroughBody(true);
+                }
+                if (n.implementsSimpleTag()
+                        && n.getTagHandlerClass() != null
+                        && reuseFragmentsTags != null
+                        && reuseFragmentsTags.contains(
+                            n.getTagHandlerClass().getName())) {
+                    n.setReuseJspFragments(true);
+                }
                 visitBody(n);
             }
         });
@@ -159,6 +180,26 @@ public class TagPluginManager {
 	    }
 	    tagPlugins.put(tagClass, tagPlugin);
 	}
+
+	passThroughBodyTags = new HashSet<String>();
+	Iterator passThroughList = root.findChildren("pass-through-body");
+	while (passThroughList.hasNext()) {
+	    TreeNode passThroughNode = (TreeNode) passThroughList.next();
+	    TreeNode tagClassNode = passThroughNode.findChild("tag-class");
+	    if (tagClassNode != null) {
+		passThroughBodyTags.add(tagClassNode.getBody().trim());
+	    }
+	}
+
+	reuseFragmentsTags = new HashSet<String>();
+	Iterator reuseFragmentsList = root.findChildren("reuse-fragments");
+	while (reuseFragmentsList.hasNext()) {
+	    TreeNode reuseFragmentsNode = (TreeNode) reuseFragmentsList.next();
+	    TreeNode tagClassNode = reuseFragmentsNode.findChild("tag-class");
+	    if (tagClassNode != null) {
+		reuseFragmentsTags.add(tagClassNode.getBody().trim());
+	    }
+	}
 	initialized = true;
     }
 
@@ -216,6 +257,33 @@ public class TagPluginManager {
 	    return node.getChildInfo().isScriptless();
 	}
 
+	public boolean hasEmptyBody() {
+	    return node.hasEmptyBody();
+	}
+
+	public boolean hasNestedTag(final String tagHandlerClassName) {
+	    if (node.getBody() == null) {
+		return false;
+	    }
+	    final boolean[] found = new boolean[1];
+	    try {
+		node.getBody().visit(new Node.Visitor() {
+		    public void visit(Node.CustomTag n)
+			    throws JasperException {
+			if (n.getParent() != node
+				&& tagHandlerClassName.equals(
+				    n.getTagHandlerClass().getName())) {
+			    found[0] = true;
+			}
+			visitBody(n);
+		    }
+		});
+	    } catch (JasperException ex) {
+		// Not thrown by the visitor
+	    }
+	    return found[0];
+	}
+
 	public boolean isConstantAttribute(String attribute) {
 	    Node.JspAttribute attr = getNodeAttribute(attribute);
 	    if (attr == null)
@@ -72,6 +72,19 @@ public interface TagPluginContext {
      */
     boolean isScriptless();
 
+    /**
+     * @return true if the tag has an empty body.
+     */
+    boolean hasEmptyBody();
+
+    /**
+     * @param tagHandlerClassName The name of a tag handler class
+     * @return true if the body of the tag contains, other than as an
+     *         immediate child, a custom tag with the given tag handler
+     *         class.
+     */
+    boolean hasNestedTag(String tagHandlerClassName);
+
     /**
      * @param attribute Name of the attribute
      * @return true if the attribute is specified in the tag
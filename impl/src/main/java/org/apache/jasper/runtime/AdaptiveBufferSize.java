@@ -0,0 +1,126 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.jasper.runtime;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jasper.Constants;
+
+/**
+ * Learns the output buffer size of a page that does not specify one in
+ * its page directive.
+ *
+ * The amount of output of the last SAMPLES requests for the page is kept,
+ * and every RECOMPUTE_INTERVAL requests, the buffer size is set to the
+ * 90th percentile of these amounts, rounded up to a power of two, and
+ * bounded by the configured minimum and maximum sizes.  Until enough
+ * requests have been seen, the default buffer size is used.
+ */
+public class AdaptiveBufferSize {
+
+    private static final int SAMPLES = 64;
+    private static final int RECOMPUTE_INTERVAL = 16;
+
+    private final int minSize;
+    private final int maxSize;
+
+    private final AtomicIntegerArray samples =
+        new AtomicIntegerArray(SAMPLES);
+    private final AtomicLong count = new AtomicLong();
+
+    private volatile int bufferSize;
+
+    /**
+     * @param minSize The minimum buffer size
+     * @param maxSize The maximum buffer size
+     */
+    public AdaptiveBufferSize(int minSize, int maxSize) {
+        this.minSize = minSize;
+        this.maxSize = Math.max(minSize, maxSize);
+        this.bufferSize = bound(Constants.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Gets the buffer size to use for the next request.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Gets the number of requests seen so far.
+     */
+    public long getRequestCount() {
+        return count.get();
+    }
+
+    /**
+     * Records the amount of output of a request.
+     */
+    public void record(long written) {
+        long n = count.getAndIncrement();
+        samples.set((int) (n % SAMPLES),
+                    (int) Math.min(written, Integer.MAX_VALUE));
+        if ((n + 1) % RECOMPUTE_INTERVAL == 0) {
+            recompute((int) Math.min(n + 1, SAMPLES));
+        }
+    }
+
+    private void recompute(int n) {
+        int[] sorted = new int[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        int p90 = sorted[(n * 9 + 9) / 10 - 1];
+        int size = Integer.highestOneBit(Math.max(p90, 1));
+        if (size < p90 && size < maxSize) {
+            size <<= 1;
+        }
+        bufferSize = bound(size);
+    }
+
+    private int bound(int size) {
+        return Math.min(Math.max(size, minSize), maxSize);
+    }
+}
@@ -58,10 +58,10 @@
 
 package org.apache.jasper.runtime;
 
-import java.io.CharArrayReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.Writer;
 import java.io.OutputStreamWriter;
 import javax.servlet.ServletResponse;
@@ -76,6 +76,10 @@ import org.apache.jasper.Constants;
  *
  * Provide support for discarding for the output that has been buffered. 
  *
+ * The buffered characters are kept in a chain of fixed-size segments, so
+ * that a large body is never copied to grow the buffer.  The segments are
+ * taken from, and returned to, the BufferPool of JspWriterImpl.
+ *
  * @author Rajiv Mordani
  * @author Jan Luehe
  */
@@ -84,24 +88,56 @@ public class BodyContentImpl extends BodyContent {
     private static final String LINE_SEPARATOR = System.getProperty(
                                                     "line.separator");
 
+    private static final int SEGMENT_SIZE = Integer.getInteger(
+        "org.apache.jasper.runtime.BodyContentImpl.SEGMENT_SIZE",
+        4 * Constants.DEFAULT_TAG_BUFFER_SIZE);
+
+    private static final BufferPool bufferPool =
+        JspWriterImpl.getBufferPool();
+
+    // Segments in use; all but the last one are full
+    private char[][] segments;
+    private int segmentCount;
+    // The last segment, and the next position in it.  When there is no
+    // segment, nextChar is SEGMENT_SIZE, so that a segment is added on the
+    // next write.
     private char[] cb;
     private int nextChar;
     private boolean closed;
 
+    // Set when a Reader over the segments has been handed out, in which
+    // case the segments must not be returned to the pool, and are dropped
+    // rather than overwritten when the body is cleared
+    private boolean segmentsShared;
+
+    private final char[] numberChars =
+        new char[JspWriterImpl.MAX_NUMBER_CHARS];
+
     // Enclosed writer to which any output is written
     private Writer writer;
 
+    // The enclosing JspWriter, which changes when this BodyContentImpl is
+    // reused by another page context
+    private JspWriter enclosingWriter;
+
     // See comment in setWriter()
     private int bufferSizeSave;
 
+    // True if the body of a tag handler is passed through to the
+    // enclosing writer as it is written
+    private boolean passThrough;
+
+    private PassThroughWriter passThroughWriter;
+
     /**
      * Constructor.
      */
     public BodyContentImpl(JspWriter enclosingWriter) {
         super(enclosingWriter);
-	bufferSize = Constants.DEFAULT_TAG_BUFFER_SIZE;
-	cb = new char[bufferSize];
-	nextChar = 0;
+	this.enclosingWriter = enclosingWriter;
+	bufferSize = SEGMENT_SIZE;
+	segments = new char[4][];
+	nextChar = SEGMENT_SIZE;
 	closed = false;
     }
 
@@ -113,8 +149,8 @@ public class BodyContentImpl extends BodyContent {
 	    writer.write(c);
 	} else {
 	    ensureOpen();
-	    if (nextChar >= bufferSize) {
-		reAllocBuff (1);
+	    if (nextChar == SEGMENT_SIZE) {
+		addSegment();
 	    }
 	    cb[nextChar++] = (char) c;
 	}
@@ -147,12 +183,17 @@ public class BodyContentImpl extends BodyContent {
 	    } else if (len == 0) {
 		return;
 	    } 
-	    
-	    if (len >= bufferSize - nextChar)
-		reAllocBuff (len);
-	    
-	    System.arraycopy(cbuf, off, cb, nextChar, len);
-	    nextChar+=len;
+
+	    while (len > 0) {
+		if (nextChar == SEGMENT_SIZE) {
+		    addSegment();
+		}
+		int d = Math.min(SEGMENT_SIZE - nextChar, len);
+		System.arraycopy(cbuf, off, cb, nextChar, d);
+		nextChar += d;
+		off += d;
+		len -= d;
+	    }
 	}
     }
 
@@ -180,11 +221,16 @@ public class BodyContentImpl extends BodyContent {
 	    writer.write(s, off, len);
 	} else {
 	    ensureOpen();
-	    if (len >= bufferSize - nextChar)
-		reAllocBuff(len);
-
-	    s.getChars(off, off + len, cb, nextChar);
-	    nextChar += len;
+	    while (len > 0) {
+		if (nextChar == SEGMENT_SIZE) {
+		    addSegment();
+		}
+		int d = Math.min(SEGMENT_SIZE - nextChar, len);
+		s.getChars(off, off + d, cb, nextChar);
+		nextChar += d;
+		off += d;
+		len -= d;
+	    }
 	}
     }
 
@@ -200,6 +246,38 @@ public class BodyContentImpl extends BodyContent {
 	}
     }
 
+    /**
+     * Write a string, escaping the characters that are special in XML.
+     * The chars are escaped straight into the buffer.
+     *
+     * @param s The string to be written
+     */
+    public void writeEscapedXml(String s) throws IOException {
+	if (writer != null) {
+	    JspRuntimeLibrary.writeEscapedXml(writer, s, 0, s.length());
+	    return;
+	}
+	ensureOpen();
+	int len = s.length();
+	for (int i = 0; i < len; i++) {
+	    char c = s.charAt(i);
+	    String entity = JspRuntimeLibrary.xmlEntity(c);
+	    if (entity == null) {
+		if (nextChar == SEGMENT_SIZE) {
+		    addSegment();
+		}
+		cb[nextChar++] = c;
+	    } else {
+		for (int j = 0; j < entity.length(); j++) {
+		    if (nextChar == SEGMENT_SIZE) {
+			addSegment();
+		    }
+		    cb[nextChar++] = entity.charAt(j);
+		}
+	    }
+	}
+    }
+
     /**
      * Write a line separator.  The line separator string is defined by the
      * system property <tt>line.separator</tt>, and is not necessarily a single
@@ -244,9 +322,9 @@ public class BodyContentImpl extends BodyContent {
      */
     public void print(char c) throws IOException {
 	if (writer != null) {
-	    writer.write(String.valueOf(c));
+	    writer.write(c);
 	} else {
-	    write(String.valueOf(c));
+	    write(c);
 	}
     }
 
@@ -261,11 +339,7 @@ public class BodyContentImpl extends BodyContent {
      * @throws IOException
      */
     public void print(int i) throws IOException {
-	if (writer != null) {
-	    writer.write(String.valueOf(i));
-	} else {
-	    write(String.valueOf(i));
-	}
+	print((long) i);
     }
 
     /**
@@ -279,10 +353,13 @@ public class BodyContentImpl extends BodyContent {
      * @throws IOException
      */
     public void print(long l) throws IOException {
-	if (writer != null) {
-	    writer.write(String.valueOf(l));
+	if (writer == null && SEGMENT_SIZE - nextChar >=
+		JspWriterImpl.MAX_NUMBER_CHARS) {
+	    ensureOpen();
+	    // Write the digits straight into the current segment
+	    nextChar += JspWriterImpl.formatLong(l, cb, nextChar);
 	} else {
-	    write(String.valueOf(l));
+	    writeNumber(JspWriterImpl.formatLong(l, numberChars, 0));
 	}
     }
 
@@ -297,7 +374,10 @@ public class BodyContentImpl extends BodyContent {
      * @throws IOException
      */
     public void print(float f) throws IOException {
-	if (writer != null) {
+	int len = JspWriterImpl.formatFloat(f, numberChars, 0);
+	if (len >= 0) {
+	    writeNumber(len);
+	} else if (writer != null) {
 	    writer.write(String.valueOf(f));
 	} else {
 	    write(String.valueOf(f));
@@ -315,13 +395,27 @@ public class BodyContentImpl extends BodyContent {
      * @throws IOException
      */
     public void print(double d) throws IOException {
-	if (writer != null) {
+	int len = JspWriterImpl.formatDouble(d, numberChars, 0);
+	if (len >= 0) {
+	    writeNumber(len);
+	} else if (writer != null) {
 	    writer.write(String.valueOf(d));
 	} else {
 	    write(String.valueOf(d));
 	}
     }
 
+    /**
+     * Write a number formatted in numberChars.
+     */
+    private void writeNumber(int len) throws IOException {
+	if (writer != null) {
+	    writer.write(numberChars, 0, len);
+	} else {
+	    write(numberChars, 0, len);
+	}
+    }
+
     /**
      * Print an array of characters.  The characters are converted into bytes
      * according to the platform's default character encoding, and these bytes
@@ -507,10 +601,12 @@ public class BodyContentImpl extends BodyContent {
      * @throws IOException If an I/O error occurs
      */
     public void clear() throws IOException {
-	if (writer != null) {
+	if (passThrough) {
+	    // The body has already been written to the enclosing writer
+	} else if (writer != null) {
 	    throw new IOException();
-	} else {
-	    nextChar = 0;
+	} else if (!closed) {
+	    releaseSegments(1);
 	}
     }
 
@@ -523,7 +619,7 @@ public class BodyContentImpl extends BodyContent {
      * @throws IOException If an I/O error occurs
      */
     public void clearBuffer() throws IOException {
-        if (writer == null) {
+        if (writer == null || passThrough) {
 	    this.clear();
 	}
     }
@@ -538,8 +634,8 @@ public class BodyContentImpl extends BodyContent {
     public void close() throws IOException {
 	if (writer != null) {
 	    writer.close();
-	} else {
-	    cb = null;	
+	} else if (!closed) {
+	    releaseSegments(0);
 	    closed = true;
 	}
     }
@@ -548,7 +644,10 @@ public class BodyContentImpl extends BodyContent {
      * @return the number of bytes unused in the buffer
      */
     public int getRemaining() {
-	return (writer == null) ? bufferSize-nextChar : 0;
+	if (writer != null) {
+	    return 0;
+	}
+	return (segmentCount == 0) ? SEGMENT_SIZE : SEGMENT_SIZE - nextChar;
     }
 
     /**
@@ -559,7 +658,15 @@ public class BodyContentImpl extends BodyContent {
      * @return the value of this BodyJspWriter as a Reader
      */
     public Reader getReader() {
-	return (writer == null) ? new CharArrayReader (cb, 0, nextChar) : null;
+	if (passThrough) {
+	    return new StringReader("");
+	}
+	if (writer != null) {
+	    return null;
+	}
+	segmentsShared = true;
+	return new SegmentReader(segments, segmentCount,
+				 (segmentCount == 0) ? 0 : nextChar);
     }
 
     /**
@@ -570,7 +677,26 @@ public class BodyContentImpl extends BodyContent {
      * @return the value of the BodyJspWriter as a String
      */
     public String getString() {
-	return (writer == null) ? new String(cb, 0, nextChar) : null;
+	if (passThrough) {
+	    return "";
+	}
+	if (writer != null) {
+	    return null;
+	}
+	if (segmentCount == 0) {
+	    return "";
+	}
+	if (segmentCount == 1) {
+	    return new String(cb, 0, nextChar);
+	}
+	char[] chars = new char[(segmentCount - 1) * SEGMENT_SIZE + nextChar];
+	int last = segmentCount - 1;
+	for (int i = 0; i < last; i++) {
+	    System.arraycopy(segments[i], 0, chars, i * SEGMENT_SIZE,
+			     SEGMENT_SIZE);
+	}
+	System.arraycopy(cb, 0, chars, last * SEGMENT_SIZE, nextChar);
+	return new String(chars);
     }
 	
     /**
@@ -582,7 +708,13 @@ public class BodyContentImpl extends BodyContent {
      * evaluation
      */
     public void writeOut(Writer out) throws IOException {
-	if (writer == null) {
+	if (passThrough) {
+	    // The body has already been written to the enclosing writer
+	} else if (writer == null && segmentCount > 0) {
+	    int last = segmentCount - 1;
+	    for (int i = 0; i < last; i++) {
+		out.write(segments[i], 0, SEGMENT_SIZE);
+	    }
 	    out.write(cb, 0, nextChar);
 	    // Flush not called as the writer passed could be a BodyContent and
 	    // it doesn't allow to flush.
@@ -603,6 +735,7 @@ public class BodyContentImpl extends BodyContent {
      * Sets the writer to which all output is written.
      */
     void setWriter(Writer writer) {
+	passThrough = false;
 	this.writer = writer;
 	if (writer != null) {
 	    // According to the spec, the JspWriter returned by 
@@ -624,31 +757,183 @@ public class BodyContentImpl extends BodyContent {
 	}
     }
 
+    /**
+     * Get the enclosing JspWriter.
+     */
+    public JspWriter getEnclosingWriter() {
+	return enclosingWriter;
+    }
+
+    void setEnclosingWriter(JspWriter enclosingWriter) {
+	this.enclosingWriter = enclosingWriter;
+    }
+
+    /**
+     * Discards the buffered chars, and returns the segments to the pool.
+     * Called when the page context that owns this BodyContentImpl is
+     * released.
+     *
+     * @param keep The number of segments to keep for reuse
+     * @return The number of chars in the segments kept
+     */
+    int recycle(int keep) {
+	passThrough = false;
+	// Do not keep the writer passed to pushBody(Writer) reachable
+	writer = null;
+	releaseSegments(keep);
+	closed = false;
+	return segmentCount * SEGMENT_SIZE;
+    }
+
+    /**
+     * Passes the body of a tag handler through to the enclosing writer as
+     * it is written, instead of buffering it.  The body then reads as
+     * empty, and clearing or writing it out does nothing, so this must
+     * only be used for tag handlers that write their body out unchanged.
+     * Called once this BodyContentImpl has been pushed with the enclosing
+     * writer as its writer.
+     */
+    void setPassThrough() {
+	if (passThroughWriter == null) {
+	    passThroughWriter = new PassThroughWriter();
+	}
+	passThroughWriter.out = enclosingWriter;
+	passThrough = true;
+	writer = passThroughWriter;
+    }
+
+    /*
+     * Writes the body of a tag handler through to the enclosing writer,
+     * which is left open when the body is closed.
+     */
+    private class PassThroughWriter extends Writer {
+
+	private JspWriter out;
+
+	public void write(int c) throws IOException {
+	    out.write(c);
+	}
+
+	public void write(char[] cbuf, int off, int len) throws IOException {
+	    out.write(cbuf, off, len);
+	}
+
+	public void write(String str, int off, int len) throws IOException {
+	    out.write(str, off, len);
+	}
+
+	public void write(String str) throws IOException {
+	    out.write(str);
+	}
+
+	public void flush() throws IOException {
+	    out.flush();
+	}
+
+	public void close() {
+	    // The enclosing writer stays open
+	}
+    }
+
     private void ensureOpen() throws IOException {
 	if (closed) throw new IOException("Stream closed");
     }
 
     /**
-     * Reallocates buffer since the spec requires it to be unbounded.
+     * Adds a segment to the buffer, since the spec requires it to be
+     * unbounded.
      */
-    private void reAllocBuff(int len) {
+    private void addSegment() {
+	if (segmentCount == segments.length) {
+	    char[][] tmp = new char[segmentCount * 2][];
+	    System.arraycopy(segments, 0, tmp, 0, segmentCount);
+	    segments = tmp;
+	}
+	char[] segment = bufferPool.allocateChars(SEGMENT_SIZE);
+	segments[segmentCount++] = segment;
+	cb = segment;
+	nextChar = 0;
+	if (writer == null) {
+	    bufferSize = segmentCount * SEGMENT_SIZE;
+	}
+    }
 
-        if (bufferSize + len <= cb.length) {
-            bufferSize = cb.length;
-            return;
-        }
+    /**
+     * Discards the buffered chars, keeping only the first <code>keep</code>
+     * segments, and returning the others to the pool.
+     */
+    private void releaseSegments(int keep) {
+	if (keep > segmentCount) {
+	    keep = segmentCount;
+	}
+	if (segmentsShared) {
+	    // A Reader may still be reading the segments, which must not be
+	    // written to again, nor returned to the pool
+	    for (int i = 0; i < segmentCount; i++) {
+		segments[i] = null;
+	    }
+	    segmentCount = 0;
+	    keep = 0;
+	    segmentsShared = false;
+	}
+	for (int i = keep; i < segmentCount; i++) {
+	    bufferPool.releaseChars(segments[i]);
+	    segments[i] = null;
+	}
+	segmentCount = keep;
+	if (keep == 0) {
+	    cb = null;
+	    nextChar = SEGMENT_SIZE;
+	} else {
+	    cb = segments[keep - 1];
+	    nextChar = 0;
+	}
+	if (writer == null) {
+	    bufferSize = (keep == 0) ? SEGMENT_SIZE : keep * SEGMENT_SIZE;
+	}
+    }
 
-        if (len < cb.length) {
-            len = cb.length;
-        }
+    /**
+     * A Reader over the segments of a BodyContentImpl.
+     */
+    private static class SegmentReader extends Reader {
 
-        bufferSize = cb.length + len;
-        char[] tmp = new char[bufferSize];
+	private final char[][] segments;
+	private final int count;
+	private final int lastLength;
+	private int segment;
+	private int pos;
 
-	System.arraycopy(cb, 0, tmp, 0, cb.length);
-	cb = tmp;
-	tmp = null;
+	SegmentReader(char[][] segments, int count, int lastLength) {
+	    this.segments = segments.clone();
+	    this.count = count;
+	    this.lastLength = lastLength;
+	}
+
+	public int read(char[] cbuf, int off, int len) {
+	    if (len == 0) {
+		return 0;
+	    }
+	    int total = 0;
+	    while (len > 0 && segment < count) {
+		int limit = (segment == count - 1) ? lastLength : SEGMENT_SIZE;
+		if (pos == limit) {
+		    segment++;
+		    pos = 0;
+		    continue;
+		}
+		int d = Math.min(limit - pos, len);
+		System.arraycopy(segments[segment], pos, cbuf, off, d);
+		pos += d;
+		off += d;
+		len -= d;
+		total += d;
+	    }
+	    return (total == 0) ? -1 : total;
+	}
 
+	public void close() {
+	}
     }
 
 
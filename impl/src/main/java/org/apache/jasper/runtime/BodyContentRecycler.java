@@ -0,0 +1,132 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.jasper.runtime;
+
+import org.apache.jasper.Constants;
+
+/**
+ * Keeps the BodyContentImpl's of a released page context, so that the next
+ * page context on the same thread can reuse them, instead of allocating
+ * new ones and their buffers.
+ *
+ * Only as many BodyContentImpl's as the last page context has used are
+ * kept, up to MAX_DEPTH, so that a page with deeply nested body tags does
+ * not pin them forever.  Each one keeps its first buffer segment, as long
+ * as the chars kept per thread do not exceed MAX_RETAINED_CHARS; all other
+ * segments go back to the BufferPool shared by all threads.
+ */
+final class BodyContentRecycler {
+
+    // Off by default with virtual threads, which never serve a second
+    // page context
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(
+        "org.apache.jasper.runtime.BodyContentRecycler.ENABLED",
+        String.valueOf(!Constants.VIRTUAL_THREADS)));
+
+    private static final int MAX_DEPTH = Integer.getInteger(
+        "org.apache.jasper.runtime.BodyContentRecycler.MAX_DEPTH", 8);
+
+    private static final int MAX_RETAINED_CHARS = Integer.getInteger(
+        "org.apache.jasper.runtime.BodyContentRecycler.MAX_RETAINED_CHARS",
+        16 * 1024);
+
+    private static final ThreadLocal<BodyContentImpl[]> recycled =
+        new ThreadLocal<BodyContentImpl[]>();
+
+    private BodyContentRecycler() {
+    }
+
+    /**
+     * Takes the BodyContentImpl's kept for the current thread.
+     *
+     * @return The BodyContentImpl's, or null if there is none
+     */
+    static BodyContentImpl[] get() {
+        BodyContentImpl[] outs = recycled.get();
+        if (outs != null) {
+            recycled.set(null);
+        }
+        return outs;
+    }
+
+    /**
+     * Keeps the BodyContentImpl's of a page context that is being
+     * released, for the current thread.
+     *
+     * @param outs The BodyContentImpl's of the page context
+     * @param used The number of them used since the page context was
+     *             initialized
+     */
+    static void recycle(BodyContentImpl[] outs, int used) {
+        if (outs.length == 0) {
+            return;
+        }
+        int keep = Math.min(Math.min(used, outs.length), MAX_DEPTH);
+        BodyContentImpl[] current = recycled.get();
+        if (current != null && current.length >= keep) {
+            // Another page context on this thread (e.g. an included page)
+            // has already handed over as many
+            keep = 0;
+        }
+        int retained = 0;
+        for (int i = 0; i < outs.length; i++) {
+            if (i < keep && retained < MAX_RETAINED_CHARS) {
+                retained += outs[i].recycle(1);
+            } else {
+                outs[i].recycle(0);
+            }
+        }
+        if (keep == 0) {
+            return;
+        }
+        if (current != null) {
+            for (int i = 0; i < current.length; i++) {
+                current[i].recycle(0);
+            }
+        }
+        if (keep < outs.length) {
+            BodyContentImpl[] trimmed = new BodyContentImpl[keep];
+            System.arraycopy(outs, 0, trimmed, 0, keep);
+            outs = trimmed;
+        }
+        recycled.set(outs);
+    }
+}
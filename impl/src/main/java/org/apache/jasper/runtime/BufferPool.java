@@ -0,0 +1,86 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.jasper.runtime;
+
+/**
+ * A pool of the char and byte arrays used as buffers by JspWriterImpl and
+ * BodyContentImpl.
+ *
+ * The implementation is selected with the system property
+ * org.apache.jasper.runtime.JspWriterImpl.BUFFER_POOL, which names a
+ * class implementing this interface and having a public no-arg
+ * constructor.  A single instance is shared by all threads, so an
+ * implementation must be thread-safe.  The default is
+ * {@link StripedBufferPool}.
+ *
+ * An array is released at most once, by the writer that allocated it, and
+ * is not used by that writer afterwards.
+ */
+public interface BufferPool {
+
+    /**
+     * Allocates a char array.
+     *
+     * @param minLength The minimum length of the array
+     * @return A char array of at least minLength chars, whose content is
+     *         undefined
+     */
+    public char[] allocateChars(int minLength);
+
+    /**
+     * Returns a char array, allocated by allocateChars(), to the pool.
+     */
+    public void releaseChars(char[] chars);
+
+    /**
+     * Allocates a byte array.
+     *
+     * @param minLength The minimum length of the array
+     * @return A byte array of at least minLength bytes, whose content is
+     *         undefined
+     */
+    public byte[] allocateBytes(int minLength);
+
+    /**
+     * Returns a byte array, allocated by allocateBytes(), to the pool.
+     */
+    public void releaseBytes(byte[] bytes);
+}
@@ -61,6 +61,7 @@ package org.apache.jasper.runtime;
 import javax.el.ELContext;
 import javax.el.ELResolver;
 import javax.el.FunctionMapper;
+import javax.el.ImportHandler;
 import javax.el.VariableMapper;
 
 /**
@@ -102,7 +103,15 @@ public class ELContextImpl
         return variableMapper;
     }
 
+    public ImportHandler getImportHandler() {
+        if (importHandler == null) {
+            importHandler = new ImportHandlerImpl();
+        }
+        return importHandler;
+    }
+
     private FunctionMapper functionMapper;
     private VariableMapper variableMapper;
+    private ImportHandler importHandler;
     private ELResolver resolver;
 }
@@ -0,0 +1,719 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.jasper.runtime;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.el.ELClass;
+import javax.el.ELContext;
+import javax.el.ELException;
+import javax.el.ImportHandler;
+import javax.el.PropertyNotFoundException;
+import javax.servlet.jsp.PageContext;
+
+import org.apache.jasper.compiler.Localizer;
+import org.apache.jasper.security.SecurityUtil;
+
+/**
+ * Runtime support for the EL expressions that the compiler translates
+ * into Java code in the generated servlet, instead of passing them to
+ * the EL interpreter.
+ *
+ * The operators apply the coercion rules of the EL specification the
+ * same way the EL implementation does, so that a compiled expression
+ * returns the same value, or throws the same exception, as the
+ * interpreted one.  Variables and properties are resolved with the
+ * page's ELResolver, except for page attributes, Maps, Lists and
+ * arrays, which are accessed directly.
+ */
+public class ELRuntimeLibrary {
+
+    private static final Long ZERO = Long.valueOf(0);
+
+    // Number types used by the arithmetic operators, in order of
+    // precedence
+    private static final int LONG = 0;
+    private static final int BIGINTEGER = 1;
+    private static final int DOUBLE = 2;
+    private static final int BIGDECIMAL = 3;
+
+    /**
+     * Tells whether compiled expressions can be evaluated against the
+     * given page context.  If not, the expression is passed to the
+     * EL interpreter: this is the case when ELResolvers or listeners
+     * have been added, when variables have been set in the
+     * VariableMapper, or when running under a SecurityManager.
+     */
+    public static boolean canEvaluate(PageContext pageContext) {
+        return !SecurityUtil.isPackageProtectionEnabled()
+            && pageContext instanceof PageContextImpl
+            && ((PageContextImpl) pageContext).isStandardELContext();
+    }
+
+    /**
+     * Evaluates an identifier that is not the name of an implicit
+     * object.
+     */
+    public static Object getVariable(PageContext pageContext, String name) {
+        // Only the ScopedAttributeELResolver resolves such a name
+        Object value = pageContext.findAttribute(name);
+        if (value != null) {
+            return value;
+        }
+        return resolveVariable(pageContext, name);
+    }
+
+    /**
+     * Evaluates an identifier with the page's ELResolver.
+     */
+    public static Object resolveVariable(PageContext pageContext,
+                                         String name) {
+        ELContext elContext = pageContext.getELContext();
+        elContext.setPropertyResolved(false);
+        Object value = elContext.getELResolver().getValue(elContext,
+                                                          null, name);
+        if (!elContext.isPropertyResolved()) {
+            ImportHandler importHandler = elContext.getImportHandler();
+            if (importHandler != null) {
+                Class<?> c = importHandler.resolveStatic(name);
+                if (c != null) {
+                    return elContext.getELResolver().getValue(
+                        elContext, new ELClass(c), name);
+                }
+            }
+            throw new PropertyNotFoundException(Localizer.getMessage(
+                "jsp.error.el.variable.notFound", name));
+        }
+        return value;
+    }
+
+    /**
+     * Evaluates an identifier that is followed by a property, and that
+     * may be the name of an imported class.
+     */
+    public static Object getBase(PageContext pageContext, String name) {
+        try {
+            return getVariable(pageContext, name);
+        } catch (PropertyNotFoundException ex) {
+            ImportHandler importHandler =
+                pageContext.getELContext().getImportHandler();
+            if (importHandler != null) {
+                Class<?> c = importHandler.resolveClass(name);
+                if (c != null) {
+                    return new ELClass(c);
+                }
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Evaluates base.property, or base[property].
+     */
+    public static Object getProperty(PageContext pageContext,
+                                     Object base, Object property) {
+        if (base == null || property == null) {
+            return null;
+        }
+        if (base instanceof Map) {
+            return ((Map<?, ?>) base).get(property);
+        }
+        if (property instanceof Number) {
+            if (base instanceof List) {
+                List<?> list = (List<?>) base;
+                int index = ((Number) property).intValue();
+                if (index < 0 || index >= list.size()) {
+                    return null;
+                }
+                return list.get(index);
+            }
+            if (base.getClass().isArray()) {
+                int index = ((Number) property).intValue();
+                if (index < 0 || index >= Array.getLength(base)) {
+                    return null;
+                }
+                return Array.get(base, index);
+            }
+        }
+        ELContext elContext = pageContext.getELContext();
+        elContext.setPropertyResolved(false);
+        Object value = elContext.getELResolver().getValue(elContext,
+                                                          base, property);
+        if (!elContext.isPropertyResolved()) {
+            throw new PropertyNotFoundException(Localizer.getMessage(
+                "jsp.error.el.property.notFound",
+                base.getClass().getName(), String.valueOf(property)));
+        }
+        return value;
+    }
+
+    /**
+     * Coerces the value of an expression to its expected type.
+     */
+    public static Object coerce(PageContext pageContext, Object value,
+                                Class<?> type) {
+        if (type == Object.class
+                || (value != null && type.isInstance(value))) {
+            return value;
+        }
+        if (type == String.class) {
+            return coerceToString(value);
+        }
+        if (type == Boolean.class || type == Boolean.TYPE) {
+            return coerceToBoolean(value);
+        }
+        try {
+            return pageContext.getELContext().convertToType(value, type);
+        } catch (IllegalArgumentException ex) {
+            throw new ELException(ex);
+        }
+    }
+
+    public static Object add(Object a, Object b) {
+        if (a == null && b == null) {
+            return ZERO;
+        }
+        int type = getArithmeticType(a, b);
+        Number x = coerce(a, type);
+        Number y = coerce(b, type);
+        switch (type) {
+        case BIGDECIMAL:
+            return ((BigDecimal) x).add((BigDecimal) y);
+        case DOUBLE:
+            if (x instanceof BigDecimal || y instanceof BigDecimal) {
+                return toBigDecimal(x).add(toBigDecimal(y));
+            }
+            return Double.valueOf(x.doubleValue() + y.doubleValue());
+        case BIGINTEGER:
+            return ((BigInteger) x).add((BigInteger) y);
+        default:
+            return Long.valueOf(x.longValue() + y.longValue());
+        }
+    }
+
+    public static Object subtract(Object a, Object b) {
+        if (a == null && b == null) {
+            return ZERO;
+        }
+        int type = getArithmeticType(a, b);
+        Number x = coerce(a, type);
+        Number y = coerce(b, type);
+        switch (type) {
+        case BIGDECIMAL:
+            return ((BigDecimal) x).subtract((BigDecimal) y);
+        case DOUBLE:
+            if (x instanceof BigDecimal || y instanceof BigDecimal) {
+                return toBigDecimal(x).subtract(toBigDecimal(y));
+            }
+            return Double.valueOf(x.doubleValue() - y.doubleValue());
+        case BIGINTEGER:
+            return ((BigInteger) x).subtract((BigInteger) y);
+        default:
+            return Long.valueOf(x.longValue() - y.longValue());
+        }
+    }
+
+    public static Object multiply(Object a, Object b) {
+        if (a == null && b == null) {
+            return ZERO;
+        }
+        int type = getArithmeticType(a, b);
+        Number x = coerce(a, type);
+        Number y = coerce(b, type);
+        switch (type) {
+        case BIGDECIMAL:
+            return ((BigDecimal) x).multiply((BigDecimal) y);
+        case DOUBLE:
+            if (x instanceof BigDecimal || y instanceof BigDecimal) {
+                return toBigDecimal(x).multiply(toBigDecimal(y));
+            }
+            return Double.valueOf(x.doubleValue() * y.doubleValue());
+        case BIGINTEGER:
+            return ((BigInteger) x).multiply((BigInteger) y);
+        default:
+            return Long.valueOf(x.longValue() * y.longValue());
+        }
+    }
+
+    public static Object divide(Object a, Object b) {
+        if (a == null && b == null) {
+            return ZERO;
+        }
+        if (a instanceof BigDecimal || b instanceof BigDecimal
+                || a instanceof BigInteger || b instanceof BigInteger) {
+            BigDecimal x = (BigDecimal) coerce(a, BIGDECIMAL);
+            BigDecimal y = (BigDecimal) coerce(b, BIGDECIMAL);
+            return x.divide(y, BigDecimal.ROUND_HALF_UP);
+        }
+        Number x = coerce(a, DOUBLE);
+        Number y = coerce(b, DOUBLE);
+        return Double.valueOf(x.doubleValue() / y.doubleValue());
+    }
+
+    public static Object mod(Object a, Object b) {
+        if (a == null && b == null) {
+            return ZERO;
+        }
+        int type = getArithmeticType(a, b);
+        Number x = coerce(a, type);
+        Number y = coerce(b, type);
+        switch (type) {
+        case BIGDECIMAL:
+        case DOUBLE:
+            return Double.valueOf(x.doubleValue() % y.doubleValue());
+        case BIGINTEGER:
+            return ((BigInteger) x).mod((BigInteger) y);
+        default:
+            return Long.valueOf(x.longValue() % y.longValue());
+        }
+    }
+
+    public static Object negate(Object a) {
+        if (a == null) {
+            return ZERO;
+        }
+        if (a instanceof BigDecimal) {
+            return ((BigDecimal) a).negate();
+        }
+        if (a instanceof BigInteger) {
+            return ((BigInteger) a).negate();
+        }
+        if (a instanceof String) {
+            String s = (String) a;
+            if (isStringFloat(s)) {
+                return Double.valueOf(-Double.parseDouble(s));
+            }
+            return Long.valueOf(-Long.parseLong(s));
+        }
+        if (a instanceof Long) {
+            return Long.valueOf(-((Long) a).longValue());
+        }
+        if (a instanceof Double) {
+            return Double.valueOf(-((Double) a).doubleValue());
+        }
+        if (a instanceof Integer) {
+            return Integer.valueOf(-((Integer) a).intValue());
+        }
+        if (a instanceof Float) {
+            return Float.valueOf(-((Float) a).floatValue());
+        }
+        if (a instanceof Short) {
+            return Short.valueOf((short) -((Short) a).shortValue());
+        }
+        if (a instanceof Byte) {
+            return Byte.valueOf((byte) -((Byte) a).byteValue());
+        }
+        Long x = (Long) coerceToNumber(a, Long.class);
+        return Long.valueOf(-x.longValue());
+    }
+
+    /**
+     * a &lt; b, where a has already been found not to be null.
+     */
+    public static Boolean lessThan(Object a, Object b) {
+        if (a == null || b == null) {
+            return Boolean.FALSE;
+        }
+        return Boolean.valueOf(compare(a, b) < 0);
+    }
+
+    /**
+     * a &gt; b, where a has already been found not to be null.
+     */
+    public static Boolean greaterThan(Object a, Object b) {
+        if (a == null || b == null) {
+            return Boolean.FALSE;
+        }
+        return Boolean.valueOf(compare(a, b) > 0);
+    }
+
+    public static Boolean lessThanOrEqual(Object a, Object b) {
+        if (a == b) {
+            return Boolean.TRUE;
+        }
+        if (a == null || b == null) {
+            return Boolean.FALSE;
+        }
+        return Boolean.valueOf(compare(a, b) <= 0);
+    }
+
+    public static Boolean greaterThanOrEqual(Object a, Object b) {
+        if (a == b) {
+            return Boolean.TRUE;
+        }
+        if (a == null || b == null) {
+            return Boolean.FALSE;
+        }
+        return Boolean.valueOf(compare(a, b) >= 0);
+    }
+
+    public static boolean equals(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a instanceof Boolean || b instanceof Boolean) {
+            return coerceToBoolean(a).equals(coerceToBoolean(b));
+        }
+        if (a.getClass().isEnum()) {
+            return a.equals(coerceToEnum(b, a.getClass()));
+        }
+        if (b.getClass().isEnum()) {
+            return b.equals(coerceToEnum(a, b.getClass()));
+        }
+        if (a instanceof String || b instanceof String) {
+            return coerceToString(a).equals(coerceToString(b));
+        }
+        if (a instanceof BigDecimal || b instanceof BigDecimal) {
+            return coerceToNumber(a, BigDecimal.class).equals(
+                coerceToNumber(b, BigDecimal.class));
+        }
+        if (isDoubleOp(a, b)) {
+            return coerceToNumber(a, Double.class).equals(
+                coerceToNumber(b, Double.class));
+        }
+        if (a instanceof BigInteger || b instanceof BigInteger) {
+            return coerceToNumber(a, BigInteger.class).equals(
+                coerceToNumber(b, BigInteger.class));
+        }
+        if (isLongOp(a, b)) {
+            return coerceToNumber(a, Long.class).equals(
+                coerceToNumber(b, Long.class));
+        }
+        return a.equals(b);
+    }
+
+    public static Boolean isEmpty(Object a) {
+        if (a == null) {
+            return Boolean.TRUE;
+        }
+        if (a instanceof String) {
+            return Boolean.valueOf(((String) a).length() == 0);
+        }
+        if (a instanceof Object[]) {
+            return Boolean.valueOf(((Object[]) a).length == 0);
+        }
+        if (a instanceof Collection) {
+            return Boolean.valueOf(((Collection<?>) a).isEmpty());
+        }
+        if (a instanceof Map) {
+            return Boolean.valueOf(((Map<?, ?>) a).isEmpty());
+        }
+        return Boolean.FALSE;
+    }
+
+    public static Boolean coerceToBoolean(Object a) {
+        if (a == null || "".equals(a)) {
+            return Boolean.FALSE;
+        }
+        if (a instanceof Boolean) {
+            return (Boolean) a;
+        }
+        if (a instanceof String) {
+            return Boolean.valueOf((String) a);
+        }
+        throw new ELException(Localizer.getMessage(
+            "jsp.error.el.coerce", String.valueOf(a), a.getClass().getName(),
+            Boolean.class.getName()));
+    }
+
+    public static String coerceToString(Object a) {
+        if (a == null) {
+            return "";
+        }
+        if (a instanceof String) {
+            return (String) a;
+        }
+        if (a instanceof Enum) {
+            return ((Enum<?>) a).name();
+        }
+        return a.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        if (a == b || equals(a, b)) {
+            return 0;
+        }
+        if (a instanceof BigDecimal || b instanceof BigDecimal) {
+            return ((BigDecimal) coerceToNumber(a, BigDecimal.class))
+                .compareTo((BigDecimal) coerceToNumber(b, BigDecimal.class));
+        }
+        if (isDoubleOp(a, b)) {
+            return ((Double) coerceToNumber(a, Double.class))
+                .compareTo((Double) coerceToNumber(b, Double.class));
+        }
+        if (a instanceof BigInteger || b instanceof BigInteger) {
+            return ((BigInteger) coerceToNumber(a, BigInteger.class))
+                .compareTo((BigInteger) coerceToNumber(b, BigInteger.class));
+        }
+        if (isLongOp(a, b)) {
+            return ((Long) coerceToNumber(a, Long.class))
+                .compareTo((Long) coerceToNumber(b, Long.class));
+        }
+        if (a instanceof String || b instanceof String) {
+            return coerceToString(a).compareTo(coerceToString(b));
+        }
+        if (a instanceof Comparable) {
+            return (b != null) ? ((Comparable<Object>) a).compareTo(b) : 1;
+        }
+        if (b instanceof Comparable) {
+            return (a != null) ? -((Comparable<Object>) b).compareTo(a) : -1;
+        }
+        throw new ELException(Localizer.getMessage(
+            "jsp.error.el.compare", String.valueOf(a), String.valueOf(b)));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Enum<?> coerceToEnum(Object a, Class type) {
+        if (a == null || "".equals(a)) {
+            return null;
+        }
+        if (a.getClass().isEnum()) {
+            return (Enum<?>) a;
+        }
+        try {
+            return Enum.valueOf(type, a.toString());
+        } catch (IllegalArgumentException ex) {
+            throw new ELException(Localizer.getMessage(
+                "jsp.error.el.coerce", String.valueOf(a),
+                a.getClass().getName(), type.getName()));
+        }
+    }
+
+    private static boolean isDoubleOp(Object a, Object b) {
+        return a instanceof Double || b instanceof Double
+            || a instanceof Float || b instanceof Float;
+    }
+
+    private static boolean isLongOp(Object a, Object b) {
+        return isLongOpType(a) || isLongOpType(b);
+    }
+
+    private static boolean isLongOpType(Object a) {
+        return a instanceof Long || a instanceof Integer
+            || a instanceof Character || a instanceof Short
+            || a instanceof Byte;
+    }
+
+    private static boolean isStringFloat(String s) {
+        int len = s.length();
+        if (len > 1) {
+            for (int i = 0; i < len; i++) {
+                char c = s.charAt(i);
+                if (c == '.' || c == 'e' || c == 'E') {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Coercion of an operand of a relational or equality operator,
+     * to Long, Double, BigInteger or BigDecimal
+     */
+    private static Number coerceToNumber(Object a, Class<?> type) {
+        if (a == null || "".equals(a)) {
+            return coerceToNumber(ZERO, type);
+        }
+        if (a instanceof String) {
+            String s = (String) a;
+            try {
+                if (type == Long.class) {
+                    return Long.valueOf(s);
+                } else if (type == Double.class) {
+                    return Double.valueOf(s);
+                } else if (type == BigInteger.class) {
+                    return new BigInteger(s);
+                } else {
+                    return new BigDecimal(s);
+                }
+            } catch (NumberFormatException ex) {
+                throw new ELException(Localizer.getMessage(
+                    "jsp.error.el.coerce", s, String.class.getName(),
+                    type.getName()));
+            }
+        }
+        if (a instanceof Number) {
+            if (a.getClass() == type) {
+                return (Number) a;
+            }
+            return coerceToNumber((Number) a, type);
+        }
+        if (a instanceof Character) {
+            return coerceToNumber(
+                Short.valueOf((short) ((Character) a).charValue()), type);
+        }
+        throw new ELException(Localizer.getMessage(
+            "jsp.error.el.coerce", String.valueOf(a), a.getClass().getName(),
+            type.getName()));
+    }
+
+    private static Number coerceToNumber(Number a, Class<?> type) {
+        if (type == Long.class) {
+            return Long.valueOf(a.longValue());
+        } else if (type == Double.class) {
+            return Double.valueOf(a.doubleValue());
+        } else if (type == BigInteger.class) {
+            if (a instanceof BigDecimal) {
+                return ((BigDecimal) a).toBigInteger();
+            }
+            if (a instanceof BigInteger) {
+                return a;
+            }
+            return BigInteger.valueOf(a.longValue());
+        } else {
+            if (a instanceof BigDecimal) {
+                return a;
+            }
+            if (a instanceof BigInteger) {
+                return new BigDecimal((BigInteger) a);
+            }
+            if (a instanceof Long) {
+                return new BigDecimal(a.longValue());
+            }
+            return new BigDecimal(a.doubleValue());
+        }
+    }
+
+    /*
+     * The number type an arithmetic operator works with
+     */
+    private static int getArithmeticType(Object a, Object b) {
+        if (a instanceof BigDecimal || b instanceof BigDecimal) {
+            return BIGDECIMAL;
+        }
+        if (isDoubleOp(a, b)
+                || (a instanceof String && isStringFloat((String) a))
+                || (b instanceof String && isStringFloat((String) b))) {
+            return DOUBLE;
+        }
+        if (a instanceof BigInteger || b instanceof BigInteger) {
+            return BIGINTEGER;
+        }
+        return LONG;
+    }
+
+    /*
+     * Coercion of an operand of an arithmetic operator.  Note that a
+     * BigInteger is coerced to a BigDecimal in a DOUBLE operation.
+     */
+    private static Number coerce(Object a, int type) {
+        if (a instanceof Number) {
+            return coerce((Number) a, type);
+        }
+        if (a instanceof String) {
+            String s = (String) a;
+            try {
+                switch (type) {
+                case BIGDECIMAL:
+                    return new BigDecimal(s);
+                case DOUBLE:
+                    return Double.valueOf(s);
+                case BIGINTEGER:
+                    return new BigInteger(s);
+                default:
+                    return Long.valueOf(s);
+                }
+            } catch (NumberFormatException ex) {
+                throw new ELException(Localizer.getMessage(
+                    "jsp.error.el.coerce", s, String.class.getName(),
+                    Number.class.getName()));
+            }
+        }
+        if (a == null) {
+            return coerce(ZERO, type);
+        }
+        if (a instanceof Character) {
+            return coerce(Short.valueOf((short) ((Character) a).charValue()),
+                          type);
+        }
+        throw new ELException(Localizer.getMessage(
+            "jsp.error.el.coerce", String.valueOf(a), a.getClass().getName(),
+            Number.class.getName()));
+    }
+
+    private static Number coerce(Number a, int type) {
+        switch (type) {
+        case BIGDECIMAL:
+            if (a instanceof BigDecimal) {
+                return a;
+            }
+            if (a instanceof BigInteger) {
+                return new BigDecimal((BigInteger) a);
+            }
+            return new BigDecimal(a.doubleValue());
+        case DOUBLE:
+            if (a instanceof Double) {
+                return a;
+            }
+            if (a instanceof BigInteger) {
+                return new BigDecimal((BigInteger) a);
+            }
+            return Double.valueOf(a.doubleValue());
+        case BIGINTEGER:
+            if (a instanceof BigInteger) {
+                return a;
+            }
+            return new BigInteger(a.toString());
+        default:
+            if (a instanceof Long) {
+                return a;
+            }
+            return Long.valueOf(a.longValue());
+        }
+    }
+
+    private static BigDecimal toBigDecimal(Number a) {
+        if (a instanceof BigDecimal) {
+            return (BigDecimal) a;
+        }
+        return new BigDecimal(a.doubleValue());
+    }
+}
@@ -82,9 +82,24 @@ public abstract class HttpJspBase
     extends HttpServlet 
     implements HttpJspPage 
 {
+    // Set by the container if the page learns its buffer size
+    private volatile AdaptiveBufferSize adaptiveBufferSize;
+
     protected HttpJspBase() {
     }
 
+    /**
+     * Sets the tracker of the buffer size of this page, if the page does
+     * not specify its buffer size.
+     */
+    public void setAdaptiveBufferSize(AdaptiveBufferSize adaptiveBufferSize) {
+        this.adaptiveBufferSize = adaptiveBufferSize;
+    }
+
+    AdaptiveBufferSize getAdaptiveBufferSize() {
+        return adaptiveBufferSize;
+    }
+
     public final void init(ServletConfig config) 
 	throws ServletException 
     {
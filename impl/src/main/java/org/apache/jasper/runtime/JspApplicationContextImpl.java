@@ -68,6 +68,8 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Collections;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletContext;
 import javax.servlet.jsp.JspApplicationContext;
@@ -78,6 +80,10 @@ import javax.el.ELContext;
 import javax.el.ExpressionFactory;
 import javax.el.ELContextListener;
 import javax.el.ELContextEvent;
+import javax.el.FunctionMapper;
+import javax.el.MethodExpression;
+import javax.el.ValueExpression;
+import javax.el.VariableMapper;
 
 import org.apache.jasper.Constants;
 
@@ -112,12 +118,104 @@ public class JspApplicationContextImpl implements JspApplicationContext {
 
     public void setExpressionFactory(ExpressionFactory expressionFactory) {
         this.expressionFactory = expressionFactory;
+        elResolver = null;
+        valueExpressions.clear();
+        methodExpressions.clear();
+    }
+
+    /**
+     * Creates a ValueExpression with the ExpressionFactory of the
+     * application, or returns the one created earlier for the same
+     * expression, expected type and FunctionMapper.
+     *
+     * Creating an expression resolves its functions and variables with
+     * the mappers of the ELContext, so an expression is reused only when
+     * the ELContext has no variables.
+     */
+    ValueExpression createValueExpression(ELContext elContext,
+                                          String expression,
+                                          Class<?> expectedType) {
+        ExpressionKey key = null;
+        if (isCacheable(elContext)) {
+            key = new ExpressionKey(expression, expectedType,
+                                    elContext.getFunctionMapper(), null);
+            ValueExpression expr = valueExpressions.get(key);
+            if (expr != null) {
+                return expr;
+            }
+        }
+        ValueExpression expr = getExpressionFactory().createValueExpression(
+            elContext, expression, expectedType);
+        if (key != null && valueExpressions.size() < MAX_CACHED_EXPRESSIONS) {
+            valueExpressions.put(key, expr);
+        }
+        return expr;
+    }
+
+    /**
+     * Creates a MethodExpression with the ExpressionFactory of the
+     * application, or returns the one created earlier for the same
+     * expression, expected types and FunctionMapper.
+     */
+    MethodExpression createMethodExpression(ELContext elContext,
+                                            String expression,
+                                            Class<?> expectedType,
+                                            Class<?>[] paramTypes) {
+        ExpressionKey key = null;
+        if (isCacheable(elContext)) {
+            key = new ExpressionKey(expression, expectedType,
+                                    elContext.getFunctionMapper(),
+                                    paramTypes);
+            MethodExpression expr = methodExpressions.get(key);
+            if (expr != null) {
+                return expr;
+            }
+        }
+        MethodExpression expr = getExpressionFactory().createMethodExpression(
+            elContext, expression, expectedType, paramTypes);
+        if (key != null && methodExpressions.size() < MAX_CACHED_EXPRESSIONS) {
+            methodExpressions.put(key, expr);
+        }
+        return expr;
+    }
+
+    private static boolean isCacheable(ELContext elContext) {
+        VariableMapper variableMapper = elContext.getVariableMapper();
+        return variableMapper == null
+            || (variableMapper instanceof VariableMapperImpl
+                && ((VariableMapperImpl) variableMapper).isEmpty());
     }
 
     public void addELContextListener(ELContextListener listener) {
         listeners.add(listener);
     }
 
+    /**
+     * Returns the ELResolver of the ELContexts of the pages.
+     *
+     * The resolvers in the chain get the page context and everything else
+     * request specific from the ELContext, so the chain is shared by all
+     * the page contexts of the application.  It is built only once the
+     * application has received its first request, after which no
+     * ELResolver can be added.
+     */
+    ELResolver getELResolver() {
+        ELResolver resolver = elResolver;
+        if (resolver == null) {
+            resolver = createELResolver();
+            if ("true".equals(
+                    context.getAttribute(Constants.FIRST_REQUEST_SEEN))) {
+                elResolver = resolver;
+            }
+        }
+        return resolver;
+    }
+
+    private ELResolver createELResolver() {
+        return new JspELResolver(getELResolvers(),
+                                 getExpressionFactory().getStreamELResolver());
+    }
+
     protected ELContext createELContext(ELResolver resolver) {
 
         ELContext elContext = new ELContextImpl(resolver);
@@ -149,6 +247,14 @@ public class JspApplicationContextImpl implements JspApplicationContext {
         return elResolvers.iterator();
     }
 
+    /**
+     * @return true if ELResolvers or ELContextListeners have been added
+     *         to this application context
+     */
+    boolean hasELExtensions() {
+        return !elResolvers.isEmpty() || !listeners.isEmpty();
+    }
+
     private static Map<ServletContext, JspApplicationContextImpl> map =
             Collections.synchronizedMap(
                 new HashMap<ServletContext, JspApplicationContextImpl>());
@@ -158,5 +264,59 @@ public class JspApplicationContextImpl implements JspApplicationContext {
             new ArrayList<ELContextListener>();
     private ServletContext context;
     private ExpressionFactory expressionFactory;
+    // Shared by the page contexts, see getELResolver()
+    private volatile ELResolver elResolver;
+
+    // The generated code passes literal expressions, so the number of
+    // distinct keys is bounded by the pages of the application; the limit
+    // only guards against callers building expressions dynamically
+    private static final int MAX_CACHED_EXPRESSIONS = 4096;
+
+    private ConcurrentHashMap<ExpressionKey, ValueExpression> valueExpressions =
+            new ConcurrentHashMap<ExpressionKey, ValueExpression>();
+    private ConcurrentHashMap<ExpressionKey, MethodExpression> methodExpressions =
+            new ConcurrentHashMap<ExpressionKey, MethodExpression>();
+
+    /*
+     * The key of a cached expression.  FunctionMappers are compared by
+     * identity: the generated code keeps one ProtectedFunctionMapper per
+     * page.
+     */
+    private static final class ExpressionKey {
+
+        private final String expression;
+        private final Class<?> expectedType;
+        private final FunctionMapper functionMapper;
+        private final Class<?>[] paramTypes;
+        private final int hashCode;
+
+        ExpressionKey(String expression, Class<?> expectedType,
+                      FunctionMapper functionMapper, Class<?>[] paramTypes) {
+            this.expression = expression;
+            this.expectedType = expectedType;
+            this.functionMapper = functionMapper;
+            this.paramTypes = paramTypes;
+            this.hashCode = expression.hashCode() * 31
+                + System.identityHashCode(expectedType) * 17
+                + System.identityHashCode(functionMapper)
+                + Arrays.hashCode(paramTypes);
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ExpressionKey)) {
+                return false;
+            }
+            ExpressionKey key = (ExpressionKey) obj;
+            return hashCode == key.hashCode
+                && expectedType == key.expectedType
+                && functionMapper == key.functionMapper
+                && expression.equals(key.expression)
+                && Arrays.equals(paramTypes, key.paramTypes);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+    }
 }
 
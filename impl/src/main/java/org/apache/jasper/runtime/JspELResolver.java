@@ -0,0 +1,351 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.jasper.runtime;
+
+import java.beans.FeatureDescriptor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.el.ArrayELResolver;
+import javax.el.BeanELResolver;
+import javax.el.CompositeELResolver;
+import javax.el.ELClass;
+import javax.el.ELContext;
+import javax.el.ELResolver;
+import javax.el.ImportHandler;
+import javax.el.ListELResolver;
+import javax.el.MapELResolver;
+import javax.el.ResourceBundleELResolver;
+import javax.el.StaticFieldELResolver;
+import javax.servlet.jsp.JspContext;
+import javax.servlet.jsp.PageContext;
+import javax.servlet.jsp.el.ImplicitObjectELResolver;
+import javax.servlet.jsp.el.ScopedAttributeELResolver;
+
+/**
+ * The ELResolver of the ELContexts of the pages.
+ *
+ * It resolves as a CompositeELResolver holding, in this order, the
+ * ImplicitObjectELResolver, the ELResolvers added to the
+ * JspApplicationContext, the stream ELResolver of the ExpressionFactory,
+ * and the StaticField, Map, ResourceBundle, List, Array, Bean and
+ * ScopedAttribute ELResolvers.  But rather than asking each resolver in
+ * turn, it only asks the standard resolvers that handle the type of the
+ * base object: a property of a bean goes straight to the BeanELResolver,
+ * and a top level identifier to the ImplicitObjectELResolver, if it is the
+ * name of an implicit object, or else to the ScopedAttributeELResolver.
+ * The added ELResolvers, which may handle any base, are always asked, at
+ * their place in the chain.
+ *
+ * The value of a top level identifier that is not a scoped attribute is
+ * the imported class of that name, if any.  Looking up a class that does
+ * not exist may be costly, and is repeated on each evaluation of an
+ * optional attribute, so the names found not to be classes are
+ * remembered for the application.
+ */
+class JspELResolver extends ELResolver {
+
+    private static final int GET_VALUE = 0;
+    private static final int GET_TYPE = 1;
+    private static final int SET_VALUE = 2;
+    private static final int IS_READ_ONLY = 3;
+    private static final int INVOKE = 4;
+
+    private static final Set<String> implicitObjectNames = new HashSet<String>(
+        Arrays.asList(new String[] {
+            "pageContext", "pageScope", "requestScope", "sessionScope",
+            "applicationScope", "param", "paramValues", "header",
+            "headerValues", "initParam", "cookie" }));
+
+    // Only guards against pages looking up unbounded sets of names
+    private static final int MAX_NOT_CLASSES = 4096;
+
+    private final ELResolver implicitObjectResolver =
+        new ImplicitObjectELResolver();
+    private final ELResolver[] appResolvers;
+    private final ELResolver streamResolver;
+    private final ELResolver staticFieldResolver = new StaticFieldELResolver();
+    private final ELResolver mapResolver = new MapELResolver();
+    private final ELResolver resourceBundleResolver =
+        new ResourceBundleELResolver();
+    private final ELResolver listResolver = new ListELResolver();
+    private final ELResolver arrayResolver = new ArrayELResolver();
+    private final ELResolver beanResolver = new BeanELResolver();
+    private final ELResolver scopedAttributeResolver =
+        new ScopedAttributeELResolver();
+
+    // All the resolvers, for the operations that do not depend on the
+    // type of the base object
+    private final CompositeELResolver allResolvers = new CompositeELResolver();
+
+    // The top level identifiers that are not classes of java.lang
+    private final Set<String> notClasses =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * @param appResolvers The ELResolvers added to the JspApplicationContext
+     * @param streamResolver The stream ELResolver of the ExpressionFactory,
+     *        or null
+     */
+    JspELResolver(Iterator<ELResolver> appResolvers,
+                  ELResolver streamResolver) {
+        List<ELResolver> resolvers = new ArrayList<ELResolver>();
+        while (appResolvers.hasNext()) {
+            resolvers.add(appResolvers.next());
+        }
+        this.appResolvers = resolvers.toArray(new ELResolver[resolvers.size()]);
+        this.streamResolver = streamResolver;
+
+        allResolvers.add(implicitObjectResolver);
+        for (ELResolver resolver: this.appResolvers) {
+            allResolvers.add(resolver);
+        }
+        if (streamResolver != null) {
+            allResolvers.add(streamResolver);
+        }
+        allResolvers.add(staticFieldResolver);
+        allResolvers.add(mapResolver);
+        allResolvers.add(resourceBundleResolver);
+        allResolvers.add(listResolver);
+        allResolvers.add(arrayResolver);
+        allResolvers.add(beanResolver);
+        allResolvers.add(scopedAttributeResolver);
+    }
+
+    public Object getValue(ELContext context, Object base, Object property) {
+        return resolve(GET_VALUE, context, base, property, null, null, null);
+    }
+
+    public Class<?> getType(ELContext context, Object base, Object property) {
+        return (Class<?>) resolve(GET_TYPE, context, base, property,
+                                  null, null, null);
+    }
+
+    public void setValue(ELContext context, Object base, Object property,
+                         Object value) {
+        resolve(SET_VALUE, context, base, property, value, null, null);
+    }
+
+    public boolean isReadOnly(ELContext context, Object base,
+                              Object property) {
+        Object readOnly = resolve(IS_READ_ONLY, context, base, property,
+                                  null, null, null);
+        return readOnly != null && ((Boolean) readOnly).booleanValue();
+    }
+
+    public Object invoke(ELContext context, Object base, Object method,
+                         Class<?>[] paramTypes, Object[] params) {
+        return resolve(INVOKE, context, base, method, null,
+                       paramTypes, params);
+    }
+
+    public Iterator<FeatureDescriptor> getFeatureDescriptors(
+            ELContext context, Object base) {
+        return allResolvers.getFeatureDescriptors(context, base);
+    }
+
+    public Class<?> getCommonPropertyType(ELContext context, Object base) {
+        return allResolvers.getCommonPropertyType(context, base);
+    }
+
+    public Object convertToType(ELContext context, Object obj,
+                                Class<?> type) {
+        // None of the standard resolvers converts types
+        context.setPropertyResolved(false);
+        for (ELResolver resolver: appResolvers) {
+            Object value = resolver.convertToType(context, obj, type);
+            if (context.isPropertyResolved()) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Performs an operation with the resolvers of the chain that may
+     * handle the base object, in chain order, until one of them resolves
+     * the property.
+     */
+    private Object resolve(int op, ELContext context, Object base,
+                           Object property, Object value,
+                           Class<?>[] paramTypes, Object[] params) {
+        context.setPropertyResolved(false);
+        Object result;
+        if (base == null && implicitObjectNames.contains(property)) {
+            result = apply(implicitObjectResolver, op, context, base,
+                           property, value, paramTypes, params);
+            if (context.isPropertyResolved()) {
+                return result;
+            }
+        }
+        for (ELResolver resolver: appResolvers) {
+            result = apply(resolver, op, context, base, property, value,
+                           paramTypes, params);
+            if (context.isPropertyResolved()) {
+                return result;
+            }
+        }
+        if (base == null) {
+            if (op == GET_VALUE) {
+                return getScopedAttribute(context, property);
+            }
+            return apply(scopedAttributeResolver, op, context, base,
+                         property, value, paramTypes, params);
+        }
+        // The stream ELResolver only has methods on collections and arrays
+        if (op == INVOKE && streamResolver != null
+                && (base instanceof Collection || base.getClass().isArray())) {
+            result = apply(streamResolver, op, context, base, property, value,
+                           paramTypes, params);
+            if (context.isPropertyResolved()) {
+                return result;
+            }
+        }
+        if (base instanceof ELClass) {
+            result = apply(staticFieldResolver, op, context, base, property,
+                           value, paramTypes, params);
+            if (context.isPropertyResolved()) {
+                return result;
+            }
+        }
+        if (base instanceof Map) {
+            result = apply(mapResolver, op, context, base, property, value,
+                           paramTypes, params);
+            if (context.isPropertyResolved()) {
+                return result;
+            }
+        }
+        if (base instanceof ResourceBundle) {
+            result = apply(resourceBundleResolver, op, context, base,
+                           property, value, paramTypes, params);
+            if (context.isPropertyResolved()) {
+                return result;
+            }
+        }
+        if (base instanceof List) {
+            result = apply(listResolver, op, context, base, property, value,
+                           paramTypes, params);
+            if (context.isPropertyResolved()) {
+                return result;
+            }
+        }
+        if (base.getClass().isArray()) {
+            result = apply(arrayResolver, op, context, base, property, value,
+                           paramTypes, params);
+            if (context.isPropertyResolved()) {
+                return result;
+            }
+        }
+        return apply(beanResolver, op, context, base, property, value,
+                     paramTypes, params);
+    }
+
+    /*
+     * Gets the value of a top level identifier as the
+     * ScopedAttributeELResolver does
+     */
+    private Object getScopedAttribute(ELContext context, Object property) {
+        context.setPropertyResolved(true);
+        if (!(property instanceof String)) {
+            return null;
+        }
+        String name = (String) property;
+        PageContext pageContext =
+            (PageContext) context.getContext(JspContext.class);
+        Object value = pageContext.findAttribute(name);
+        if (value == null) {
+            // The name of an imported class
+            ImportHandler importHandler = context.getImportHandler();
+            if (importHandler != null) {
+                Class<?> c = resolveClass(importHandler, name);
+                if (c != null) {
+                    value = new ELClass(c);
+                }
+            }
+        }
+        return value;
+    }
+
+    private Class<?> resolveClass(ImportHandler importHandler, String name) {
+        // With other imports, the names that are not classes may depend
+        // on the page
+        boolean isDefault = importHandler instanceof ImportHandlerImpl
+            && ((ImportHandlerImpl) importHandler).hasDefaultImports();
+        if (isDefault && notClasses.contains(name)) {
+            return null;
+        }
+        Class<?> c = importHandler.resolveClass(name);
+        if (c == null && isDefault && notClasses.size() < MAX_NOT_CLASSES) {
+            notClasses.add(name);
+        }
+        return c;
+    }
+
+    private static Object apply(ELResolver resolver, int op,
+                                ELContext context, Object base,
+                                Object property, Object value,
+                                Class<?>[] paramTypes, Object[] params) {
+        switch (op) {
+        case GET_VALUE:
+            return resolver.getValue(context, base, property);
+        case GET_TYPE:
+            return resolver.getType(context, base, property);
+        case SET_VALUE:
+            resolver.setValue(context, base, property, value);
+            return null;
+        case IS_READ_ONLY:
+            return Boolean.valueOf(
+                resolver.isReadOnly(context, base, property));
+        default:
+            return resolver.invoke(context, base, property, paramTypes,
+                                   params);
+        }
+    }
+}
@@ -60,7 +60,8 @@ package org.apache.jasper.runtime;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -74,10 +75,20 @@ import javax.servlet.jsp.PageContext;
 import javax.servlet.jsp.JspApplicationContext;
 
 import org.apache.jasper.Constants;
+import org.apache.jasper.compiler.Localizer;
 
 /**
  * Implementation of JspFactory.
  *
+ * If the org.apache.jasper.runtime.JspFactoryImpl.USE_POOL system property
+ * is true, released PageContextImpl's are kept for reuse, in a pool shared
+ * by all threads that holds at most POOL_SIZE of them.  A page context is
+ * reset when it is released, so that it keeps no reference to its
+ * request, response, session, page attributes or EL context, and it is
+ * pooled only once however many times it is released.  If POOL_DEBUG is
+ * true, a page context that is used after it has been released throws an
+ * IllegalStateException, whose cause tells where it was released.
+ *
  * @author Anil K. Vijendran
  * @author Kin-man Chung
  */
@@ -89,22 +100,35 @@ public class JspFactoryImpl extends JspFactory {
 
     private static final String SPEC_VERSION = "2.1";
 
-    // Pooling PageContextImpl intances are known to leak memories, see
+    private static final String PREFIX =
+        "org.apache.jasper.runtime.JspFactoryImpl.";
+
+    // Pooling PageContextImpl intances used to leak memories, see
     // https://glassfish.dev.java.net/issues/show_bug.cgi?id=8601
-    // So pooling is off by default.  If for any reason, backwards
-    // compatibility is required, set the system property to true.
-    private static final boolean USE_POOL = 
-        Boolean.getBoolean(
-            "org.apache.jasper.runtime.JspFactoryImpl.USE_POOL");
-
-    // Per-thread pool of PageContext objects
-    private ThreadLocal<LinkedList<PageContext>> pool =
-        new ThreadLocal<LinkedList<PageContext>>() {
-        protected synchronized LinkedList<PageContext> initialValue() {
-            return new LinkedList<PageContext>();
-        }
-    };
-    
+    // So pooling is off by default.
+    private static final boolean USE_POOL = Boolean.getBoolean(
+        PREFIX + "USE_POOL");
+
+    private static final int POOL_SIZE = Integer.getInteger(
+        PREFIX + "POOL_SIZE", 4 * Runtime.getRuntime().availableProcessors());
+
+    static final boolean POOL_DEBUG = Boolean.getBoolean(
+        PREFIX + "POOL_DEBUG");
+
+    // Pool of PageContextImpl objects, shared by all threads
+    private final PageContextImpl[] pool =
+        new PageContextImpl[USE_POOL ? POOL_SIZE : 0];
+    private int pooled;
+
+    // Guards pool and pooled.  Not a monitor, so that a virtual thread
+    // does not pin its carrier thread while holding it.
+    private final ReentrantLock poolLock = new ReentrantLock();
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+
     public PageContext getPageContext(Servlet servlet,
 				      ServletRequest request,
                                       ServletResponse response,
@@ -161,12 +185,20 @@ public class JspFactoryImpl extends JspFactory {
         try {
 	    PageContext pc = null;
 	    if( USE_POOL ) {
-                LinkedList<PageContext> pcPool = pool.get();
-                if (!pcPool.isEmpty()) {
-                    pc = pcPool.removeFirst();
+                poolLock.lock();
+                try {
+                    if (pooled > 0) {
+                        pc = pool[--pooled];
+                        pool[pooled] = null;
+                    }
+                } finally {
+                    poolLock.unlock();
                 }
                 if (pc == null) {
                     pc = new PageContextImpl(this);
+                    created.incrementAndGet();
+                } else {
+                    reused.incrementAndGet();
                 }
 	    } else {
 		pc = new PageContextImpl(this);
@@ -182,13 +214,64 @@ public class JspFactoryImpl extends JspFactory {
     }
 
     private void internalReleasePageContext(PageContext pc) {
+        if (pc instanceof PageContextImpl
+                && ((PageContextImpl) pc).isReleased()) {
+            // Pooling it again would hand it to two requests at once
+            log.log(Level.WARNING,
+                Localizer.getMessage("jsp.warning.pageContext.released"),
+                new IllegalStateException());
+            return;
+        }
         pc.release();
 	if (USE_POOL && (pc instanceof PageContextImpl)) {
-            LinkedList<PageContext> pcPool = pool.get();
-            pcPool.addFirst(pc);
+            boolean kept = false;
+            poolLock.lock();
+            try {
+                if (pooled < pool.length) {
+                    pool[pooled++] = (PageContextImpl) pc;
+                    kept = true;
+                }
+            } finally {
+                poolLock.unlock();
+            }
+            if (!kept) {
+                discarded.incrementAndGet();
+            }
 	}
     }
 
+    /**
+     * Is the pooling of page contexts enabled?
+     */
+    public static boolean isPoolEnabled() {
+        return USE_POOL;
+    }
+
+    /**
+     * Gets the number of page contexts instantiated while pooling is
+     * enabled.
+     */
+    public long getCreateCount() {
+        return created.get();
+    }
+
+    /**
+     * Gets the number of page contexts taken from the pool, each of
+     * which saved the allocation of a page context, its page attribute
+     * map and its JspWriter.
+     */
+    public long getReuseCount() {
+        return reused.get();
+    }
+
+    /**
+     * Gets the number of released page contexts left to the garbage
+     * collector because the pool was full.
+     */
+    public long getDiscardCount() {
+        return discarded.get();
+    }
+
     private class PrivilegedGetPageContext
             implements PrivilegedAction<PageContext> {
 
@@ -0,0 +1,138 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.jasper.runtime;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.servlet.jsp.tagext.JspFragment;
+
+/**
+ * Cache of the fragments of a page or tag file, so that the fragments
+ * passed to a simple tag handler or tag file can be reused for its next
+ * invocation instead of being allocated again.
+ *
+ * A fragment is taken from the cache before it is passed to the handler,
+ * and is put back once the handler's doTag() has returned, so that two
+ * invocations never share it.  A tag invoked recursively finds the cache
+ * empty and gets a new fragment.
+ *
+ * A fragment is rebound to the next invocation even if the handler kept
+ * a reference to it, which would then invoke the wrong body.  The
+ * generated code therefore only uses the cache for the handlers known not
+ * to keep their fragments: those generated for tag files, and those listed
+ * in WEB-INF/tagPlugins.xml.  A fragment put back no longer references the
+ * context and parent tag of its last invocation.
+ *
+ * The cache of a page has one slot per fragment and per stripe; a thread
+ * uses the stripe selected by its id.  The cache of a tag file belongs to
+ * one tag handler instance, and has a single stripe.
+ */
+public final class JspFragmentCache {
+
+    private static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors()) {
+            stripes *= 2;
+        }
+        STRIPES = stripes;
+    }
+
+    private final AtomicReferenceArray<JspFragmentHelper> slots;
+    private final int stripes;
+
+    /**
+     * Constructs a cache for the given number of fragments.
+     *
+     * @param fragments The number of fragments of the page
+     */
+    public JspFragmentCache(int fragments) {
+        this(fragments, true);
+    }
+
+    /**
+     * Constructs a cache for the given number of fragments.
+     *
+     * @param fragments The number of fragments of the page or tag file
+     * @param shared False if the cache is only used by the tag handler
+     *               instance of a single invocation of a tag file
+     */
+    public JspFragmentCache(int fragments, boolean shared) {
+        stripes = shared ? STRIPES : 1;
+        slots = new AtomicReferenceArray<JspFragmentHelper>(
+            fragments * stripes);
+    }
+
+    /**
+     * Takes a fragment from this cache.
+     *
+     * @param discriminator The fragment's discriminator
+     *
+     * @return A fragment to rebind, or null if none is cached
+     */
+    public JspFragmentHelper take(int discriminator) {
+        int slot = slot(discriminator);
+        JspFragmentHelper fragment = slots.get(slot);
+        if (fragment != null && slots.compareAndSet(slot, fragment, null)) {
+            return fragment;
+        }
+        return null;
+    }
+
+    /**
+     * Puts a fragment back into this cache, once the handler it was passed
+     * to is done with it.
+     *
+     * @param fragment The fragment, taken from this cache or allocated
+     *                 because the cache had none
+     */
+    public void put(JspFragment fragment) {
+        JspFragmentHelper helper = (JspFragmentHelper) fragment;
+        helper.unbind();
+        slots.set(slot(helper.discriminator), helper);
+    }
+
+    private int slot(int discriminator) {
+        return discriminator * stripes
+            + ((int) Thread.currentThread().getId() & (stripes - 1));
+    }
+}
@@ -87,6 +87,16 @@ public abstract class JspFragmentHelper
         JspTag parentTag ) 
     {
         this.discriminator = discriminator;
+        rebind( jspContext, parentTag );
+    }
+
+    /**
+     * Binds this fragment to the given context and parent tag, so that it
+     * can be reused for another invocation of the same tag.
+     *
+     * @see JspFragmentCache
+     */
+    protected void rebind( JspContext jspContext, JspTag parentTag ) {
         this.jspContext = jspContext;
         this._jspx_page_context = null;
         if( jspContext instanceof PageContext ) {
@@ -95,6 +105,15 @@ public abstract class JspFragmentHelper
         this.parentTag = parentTag;
     }
     
+    /**
+     * Drops the context and parent tag of the invocation this fragment was
+     * last bound to, once it is put back into a JspFragmentCache, so that
+     * they do not stay reachable until it is rebound.
+     */
+    protected void unbind() {
+        rebind( null, null );
+    }
+
     public JspContext getJspContext() {
         return this.jspContext;
     }
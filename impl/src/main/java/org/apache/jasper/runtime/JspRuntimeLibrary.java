@@ -63,6 +63,7 @@ import java.beans.PropertyEditorManager;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.util.Enumeration;
 
@@ -410,6 +411,95 @@ public class JspRuntimeLibrary {
     }
     // __end toStringMethod
 
+    /**
+     * Writes a string, escaping the 5 characters that are special in XML
+     * (and HTML), as c:out and fn:escapeXml do.  The escaped string is
+     * written straight into the buffer of JspWriterImpl and
+     * BodyContentImpl, without creating an escaped copy.
+     *
+     * @param out The writer
+     * @param s The string to escape
+     */
+    public static void writeEscapedXml(JspWriter out, String s)
+            throws IOException {
+        if (out instanceof JspWriterImpl) {
+            ((JspWriterImpl) out).writeEscapedXml(s);
+        } else if (out instanceof BodyContentImpl) {
+            ((BodyContentImpl) out).writeEscapedXml(s);
+        } else {
+            writeEscapedXml(out, s, 0, s.length());
+        }
+    }
+
+    /**
+     * Pushes the body of a tag handler that writes its body out unchanged.
+     * The body is passed through to the enclosing writer as it is
+     * evaluated, rather than buffered.  The tag handler cannot read,
+     * clear or redirect its body, which reads as empty.
+     *
+     * @param pc The page context
+     *
+     * @return The body content to evaluate the body into
+     */
+    public static BodyContent pushPassThroughBody(PageContext pc) {
+        JspWriter out = pc.pushBody(pc.getOut());
+        if (out instanceof BodyContentImpl) {
+            ((BodyContentImpl) out).setPassThrough();
+            return (BodyContent) out;
+        }
+        pc.popBody();
+        return pc.pushBody();
+    }
+
+    /**
+     * Writes a part of a string, escaping the characters that are special
+     * in XML, by writing the runs of characters that need no escaping.
+     */
+    static void writeEscapedXml(Writer out, String s, int off, int end)
+            throws IOException {
+        int start = off;
+        for (int i = off; i < end; i++) {
+            String entity = xmlEntity(s.charAt(i));
+            if (entity != null) {
+                if (i > start) {
+                    out.write(s, start, i - start);
+                }
+                out.write(entity);
+                start = i + 1;
+            }
+        }
+        if (end > start) {
+            out.write(s, start, end - start);
+        }
+    }
+
+    /**
+     * The longest entity returned by xmlEntity().
+     */
+    static final int MAX_XML_ENTITY_LENGTH = 6;
+
+    /**
+     * Gets the entity escaping a character that is special in XML.
+     *
+     * @return The entity, or null if the character needs no escaping
+     */
+    static String xmlEntity(char c) {
+        switch (c) {
+        case '<':
+            return "&lt;";
+        case '>':
+            return "&gt;";
+        case '&':
+            return "&amp;";
+        case '\'':
+            return "&#039;";
+        case '"':
+            return "&#034;";
+        default:
+            return null;
+        }
+    }
+
 
     /**
      * Create a typed array.
@@ -59,9 +59,18 @@
 package org.apache.jasper.runtime;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.servlet.ServletResponse;
 import javax.servlet.jsp.JspWriter;
@@ -88,26 +97,91 @@ import org.glassfish.jsp.api.ByteWriter;
  * for performance.  Note that this can be done only if the page is unbuffered.
  * -kmc
  *
+ * A buffered page can also take pre-encoded texts: on the first write of
+ * bytes, the buffer is switched to a byte buffer, and any text written
+ * afterwards is encoded directly into it.  The byte buffer is made large
+ * enough to hold as many chars as the char buffer, whatever their encoding,
+ * so that a page does not overflow or commit its response any earlier.
+ *
+ * If the system property ENCODE_TO_STREAM is set, the buffer is also
+ * switched to a byte buffer when it is flushed for the last time, at the
+ * end of a page that is not included, and is then written to the response
+ * output stream, instead of to the response writer.  Output flushed before
+ * then still goes to the response writer, so that the page and what it
+ * calls can use the response writer.  Once the page is done, the response
+ * writer can no longer be obtained: a filter must not call getWriter() on
+ * the response after the page has been run.
+ *
  * @author Anil K. Vijendran
  * @author Kin-man Chung
  * @author Dongbin Nie
  */
 public class JspWriterImpl extends JspWriter {
     
-    private static final int MAX_BUFFER_SIZE = Integer.getInteger(
-        "org.apache.jasper.runtime.JspWriterImpl.MAX_THREAD_LOCAL_BUFFER_SIZE",
-        32 * 1024);
-    
-    private static final ThreadLocal<CharBufferThreadLocalPool> 
-        charBufferPools = new ThreadLocal<CharBufferThreadLocalPool>();
+    private static final Logger log =
+        Logger.getLogger(JspWriterImpl.class.getName());
+
+    private static final BufferPool bufferPool = createBufferPool(
+        System.getProperty(
+            "org.apache.jasper.runtime.JspWriterImpl.BUFFER_POOL"));
+
+    // The byte buffer must be able to hold the encoding of at least one
+    // character, whatever the buffer size of the page is.
+    private static final int MIN_BYTE_BUFFER_SIZE = 16;
+
+    // Encode the buffer directly into the response output stream, so that
+    // the response writer, and its own buffer, are not used.
+    private static final boolean ENCODE_TO_STREAM = Boolean.getBoolean(
+        "org.apache.jasper.runtime.JspWriterImpl.ENCODE_TO_STREAM");
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    // How chars are encoded into the byte buffer
+    private static final int ENCODE_WITH_ENCODER = 0;
+    private static final int ENCODE_UTF_8 = 1;
+    private static final int ENCODE_ISO_8859_1 = 2;
+
+    private static final byte[] DEFAULT_REPLACEMENT = { (byte) '?' };
+
+    // Enough for any number formatted by formatLong or formatDouble
+    static final int MAX_NUMBER_CHARS = 24;
+
+    private static final double[] POW10 =
+        { 1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8 };
 
     private Writer out;
     private ServletResponse response;    
     private CharBuffer buf;
     private boolean flushed = false;
     private boolean closed = false;
+    // Chars (or bytes, once encoded) flushed from the buffer so far
+    private long written;
     protected boolean implementsByteWriter = true;
     protected ByteWriter byteOut;
+
+    // Byte buffer used instead of buf once pre-encoded texts are written
+    // to a buffered page, see write(boolean, byte[], String)
+    private byte[] bytes;
+    private int bytePos;
+    private int byteLimit;
+    private String byteEncoding;
+    private Charset byteCharset;
+    private int encodeMode;
+    private CharsetEncoder encoder;
+    private CharsetDecoder decoder;
+    private char[] decodeBuf;
+    // Response output stream, if ENCODE_TO_STREAM is set
+    private OutputStream stream;
+    // Set for the flush at the end of the page, after which nothing else
+    // writes to the response
+    private boolean lastFlush;
+    // High surrogate left over from a previous write, waiting for its pair
+    private char pendingSurrogate;
+    private final char[] oneChar = new char[1];
+    private final char[] numberChars = new char[MAX_NUMBER_CHARS];
+    private final java.nio.CharBuffer oneCharBuffer =
+        java.nio.CharBuffer.wrap(oneChar);
     
     public JspWriterImpl() {
 	super( Constants.DEFAULT_BUFFER_SIZE, true );
@@ -166,13 +240,25 @@ public class JspWriterImpl extends JspWriter {
      */
     void recycle() {
 	flushed = false;
+        written = 0;
         closed = false;
+        lastFlush = false;
         out = null;
         byteOut = null;
+        stream = null;
         releaseCharBuffer();
+        releaseByteBuffer();
         response = null;
     }
 
+    /**
+     * Gets the amount of output flushed from the buffer since this writer
+     * was initialized, in chars, or in bytes once the buffer holds bytes.
+     */
+    long getWritten() {
+        return written;
+    }
+
     /**
      * Flush the output buffer to the underlying character stream, without
      * flushing the stream itself.  This method is non-private only so that it
@@ -183,9 +269,17 @@ public class JspWriterImpl extends JspWriter {
             return;
         flushed = true;
         ensureOpen();
+        if (bytes == null && ENCODE_TO_STREAM && lastFlush && out == null) {
+            startByteBuffer(response.getCharacterEncoding());
+        }
+        if (bytes != null) {
+            flushByteBuffer();
+            return;
+        }
         if (buf.pos == buf.offset)
             return;
         initOut();
+        written += buf.pos - buf.offset;
         out.write(buf.buf, buf.offset, buf.pos - buf.offset);
         buf.pos = buf.offset;
     }
@@ -221,8 +315,7 @@ public class JspWriterImpl extends JspWriter {
             throw new IOException(
                     getLocalizeMessage("jsp.error.attempt_to_clear_flushed_buffer"));
         ensureOpen();
-        if (buf != null)
-            buf.pos = buf.offset;
+        discardBuffer();
     }
 
     public void clearBuffer() throws IOException {
@@ -230,13 +323,32 @@ public class JspWriterImpl extends JspWriter {
             throw new IllegalStateException(
                     getLocalizeMessage("jsp.error.ise_on_clear"));
         ensureOpen();
-        buf.pos = buf.offset;
+        discardBuffer();
+    }
+
+    private void discardBuffer() {
+        if (bytes != null) {
+            bytePos = 0;
+            pendingSurrogate = 0;
+        } else if (buf != null) {
+            buf.pos = buf.offset;
+        }
     }
 
     private final void bufferOverflow() throws IOException {
         throw new IOException(getLocalizeMessage("jsp.error.overflow"));
     }
 
+    /**
+     * Flush the output buffer for the last time, at the end of a page that
+     * is not included, which may then write it to the response output
+     * stream.
+     */
+    final void flushLastBuffer() throws IOException {
+        lastFlush = true;
+        flushBuffer();
+    }
+
     /**
      * Flush the stream.
      *
@@ -245,6 +357,8 @@ public class JspWriterImpl extends JspWriter {
         flushBuffer();
         if (out != null) {
             out.flush();
+        } else if (stream != null) {
+            stream.flush();
         }
         // START 6426898
         else {
@@ -266,11 +380,15 @@ public class JspWriterImpl extends JspWriter {
         if (response == null || closed)
             // multiple calls to close is OK
             return;
+        lastFlush = true;
         flush();
         if (out != null)
             out.close();
+        else if (stream != null)
+            stream.close();
         out = null;
         byteOut = null;
+        stream = null;
         closed = true;
     }
 
@@ -278,6 +396,9 @@ public class JspWriterImpl extends JspWriter {
      * @return the number of bytes unused in the buffer
      */
     public int getRemaining() {
+        if (bytes != null) {
+            return byteLimit - bytePos;
+        }
         return buf == null ? 0 : buf.lim - buf.pos;
     }
 
@@ -300,11 +421,25 @@ public class JspWriterImpl extends JspWriter {
             throws IOException {
 
         ensureOpen();
-        if (bufferSize == 0 && bytesOK) {
-            initByteOut();
-            if (implementsByteWriter) {
-                write(buf, 0, buf.length);
-                return;
+        if (bytesOK) {
+            if (bufferSize == 0) {
+                initByteOut();
+                if (implementsByteWriter) {
+                    write(buf, 0, buf.length);
+                    return;
+                }
+            } else {
+                // The bytes are in the response encoding, which must also
+                // be the encoding of the byte buffer, if already started
+                String encoding = response.getCharacterEncoding();
+                if (encoding == null) {
+                    encoding = "ISO-8859-1";
+                }
+                if (bytes != null ? byteEncoding.equalsIgnoreCase(encoding)
+                                  : startByteBuffer(encoding)) {
+                    writeToByteBuffer(buf, 0, buf.length);
+                    return;
+                }
             }
         }
         write(str);
@@ -315,7 +450,10 @@ public class JspWriterImpl extends JspWriter {
     */
     boolean shouldOutputBytes() {
         if (bufferSize > 0) {
-            return false;
+            // The bytes go into our own byte buffer, without touching the
+            // response.  Whether the response writer can take them as bytes
+            // is only decided when the buffer is flushed, see flushByteBuffer.
+            return true;
         }
         try {
             initByteOut();
@@ -338,7 +476,311 @@ public class JspWriterImpl extends JspWriter {
 
     public void write(byte buf[], int off, int len)
             throws IOException {
-        byteOut.write(buf, off, len);
+        if (bufferSize == 0) {
+            byteOut.write(buf, off, len);
+            return;
+        }
+        ensureOpen();
+        String encoding = response.getCharacterEncoding();
+        if (encoding == null) {
+            encoding = "ISO-8859-1";
+        }
+        if (bytes != null ? byteEncoding.equalsIgnoreCase(encoding)
+                          : startByteBuffer(encoding)) {
+            writeToByteBuffer(buf, off, len);
+        } else {
+            write(new String(buf, off, len, encoding));
+        }
+    }
+
+    /**
+     * Switch the buffer of this writer to a byte buffer, moving into it
+     * whatever has already been buffered.
+     *
+     * @param encoding The response encoding
+     * @return false if the encoding is not supported, in which case the
+     *         char buffer remains in use.
+     */
+    private boolean startByteBuffer(String encoding) throws IOException {
+        if (encoding == null) {
+            encoding = "ISO-8859-1";
+        }
+        Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        } catch (IllegalArgumentException ex) {
+            // Illegal or unsupported charset name
+            return false;
+        }
+        if (UTF_8.equals(charset)) {
+            encodeMode = ENCODE_UTF_8;
+        } else if (ISO_8859_1.equals(charset)) {
+            encodeMode = ENCODE_ISO_8859_1;
+        } else if (!charset.canEncode()) {
+            return false;
+        } else {
+            encodeMode = ENCODE_WITH_ENCODER;
+            if (encoder != null && encoder.charset().equals(charset)) {
+                encoder.reset();
+            } else {
+                encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+        }
+        byteEncoding = encoding;
+        byteCharset = charset;
+        // Keep the capacity of the buffer in chars
+        float maxBytesPerChar;
+        switch (encodeMode) {
+        case ENCODE_UTF_8:
+            maxBytesPerChar = 3;
+            break;
+        case ENCODE_ISO_8859_1:
+            maxBytesPerChar = 1;
+            break;
+        default:
+            maxBytesPerChar = encoder.maxBytesPerChar();
+        }
+        long size = (long) Math.ceil(bufferSize * (double) maxBytesPerChar);
+        allocateByteBuffer(size < MIN_BYTE_BUFFER_SIZE ? MIN_BYTE_BUFFER_SIZE
+                           : (int) Math.min(size, Integer.MAX_VALUE - 8));
+        if (buf != null) {
+            encodeToByteBuffer(java.nio.CharBuffer.wrap(
+                buf.buf, buf.offset, buf.pos - buf.offset));
+            releaseCharBuffer();
+        }
+        return true;
+    }
+
+    private void writeToByteBuffer(byte b[], int off, int len)
+            throws IOException {
+        if (pendingSurrogate != 0) {
+            writeReplacement();
+        }
+        while (len > 0) {
+            if (bytePos == byteLimit) {
+                if (autoFlush)
+                    flushBuffer();
+                else
+                    bufferOverflow();
+            }
+            int d = min(byteLimit - bytePos, len);
+            System.arraycopy(b, off, bytes, bytePos, d);
+            off += d;
+            len -= d;
+            bytePos += d;
+        }
+    }
+
+    private void writeToByteBuffer(int c) throws IOException {
+        oneChar[0] = (char) c;
+        oneCharBuffer.clear();
+        encodeToByteBuffer(oneCharBuffer);
+    }
+
+    /**
+     * Encode the chars into the byte buffer, flushing it as needed.
+     */
+    private void encodeToByteBuffer(java.nio.CharBuffer in)
+            throws IOException {
+        if (pendingSurrogate != 0) {
+            if (!in.hasRemaining()) {
+                return;
+            }
+            char c = in.get();
+            if (Character.isLowSurrogate(c)) {
+                char[] pair = { pendingSurrogate, c };
+                pendingSurrogate = 0;
+                encodeToByteBuffer(java.nio.CharBuffer.wrap(pair));
+            } else {
+                in.position(in.position() - 1);
+                writeReplacement();
+            }
+        }
+        if (encodeMode != ENCODE_WITH_ENCODER) {
+            encodeDirect(in);
+            return;
+        }
+        ByteBuffer bb = ByteBuffer.wrap(bytes, bytePos, byteLimit - bytePos);
+        for (;;) {
+            CoderResult result = encoder.encode(in, bb, false);
+            bytePos = bb.position();
+            if (!result.isOverflow()) {
+                break;
+            }
+            if (autoFlush)
+                flushBuffer();
+            else
+                bufferOverflow();
+            bb = ByteBuffer.wrap(bytes, 0, byteLimit);
+        }
+        if (in.hasRemaining()) {
+            // A high surrogate at the end of the input; keep it until
+            // we see the next char.
+            pendingSurrogate = in.get();
+        }
+    }
+
+    /**
+     * Encode the chars into the byte buffer without a CharsetEncoder,
+     * for UTF-8 and ISO-8859-1.  Unmappable chars and unpaired surrogates
+     * are replaced with '?', as a CharsetEncoder would do.
+     */
+    private void encodeDirect(java.nio.CharBuffer in) throws IOException {
+        boolean utf8 = (encodeMode == ENCODE_UTF_8);
+        while (in.hasRemaining()) {
+            char c = in.get();
+            if (c < 0x80) {
+                if (bytePos == byteLimit) {
+                    flushOrOverflow();
+                }
+                bytes[bytePos++] = (byte) c;
+                continue;
+            }
+            int cp = c;
+            if (Character.isHighSurrogate(c)) {
+                if (!in.hasRemaining()) {
+                    pendingSurrogate = c;
+                    return;
+                }
+                char low = in.get();
+                if (Character.isLowSurrogate(low)) {
+                    cp = Character.toCodePoint(c, low);
+                } else {
+                    in.position(in.position() - 1);
+                    cp = '?';
+                }
+            } else if (Character.isLowSurrogate(c)) {
+                cp = '?';
+            }
+            if (!utf8) {
+                if (bytePos == byteLimit) {
+                    flushOrOverflow();
+                }
+                bytes[bytePos++] = (byte) (cp < 0x100 ? cp : '?');
+            } else if (cp < 0x80) {
+                if (bytePos == byteLimit) {
+                    flushOrOverflow();
+                }
+                bytes[bytePos++] = (byte) cp;
+            } else if (cp < 0x800) {
+                if (byteLimit - bytePos < 2) {
+                    flushOrOverflow();
+                }
+                bytes[bytePos++] = (byte) (0xc0 | (cp >> 6));
+                bytes[bytePos++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (cp < 0x10000) {
+                if (byteLimit - bytePos < 3) {
+                    flushOrOverflow();
+                }
+                bytes[bytePos++] = (byte) (0xe0 | (cp >> 12));
+                bytes[bytePos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                bytes[bytePos++] = (byte) (0x80 | (cp & 0x3f));
+            } else {
+                if (byteLimit - bytePos < 4) {
+                    flushOrOverflow();
+                }
+                bytes[bytePos++] = (byte) (0xf0 | (cp >> 18));
+                bytes[bytePos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                bytes[bytePos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                bytes[bytePos++] = (byte) (0x80 | (cp & 0x3f));
+            }
+        }
+    }
+
+    private void flushOrOverflow() throws IOException {
+        if (autoFlush)
+            flushBuffer();
+        else
+            bufferOverflow();
+    }
+
+    /**
+     * Write the replacement for an unpaired surrogate.
+     */
+    private void writeReplacement() throws IOException {
+        pendingSurrogate = 0;
+        byte[] replacement = (encodeMode == ENCODE_WITH_ENCODER)?
+            encoder.replacement(): DEFAULT_REPLACEMENT;
+        writeToByteBuffer(replacement, 0, replacement.length);
+    }
+
+    private void flushByteBuffer() throws IOException {
+        if (bytePos == 0)
+            return;
+        written += bytePos;
+        if (ENCODE_TO_STREAM && lastFlush) {
+            initStream();
+        }
+        if (stream != null) {
+            stream.write(bytes, 0, bytePos);
+        } else {
+            initByteOut();
+            if (implementsByteWriter &&
+                    byteEncoding.equalsIgnoreCase(
+                        response.getCharacterEncoding())) {
+                byteOut.write(bytes, 0, bytePos);
+            } else {
+                // The response writer cannot take bytes in our encoding
+                decodeByteBuffer();
+                return;
+            }
+        }
+        bytePos = 0;
+    }
+
+    /**
+     * Decode the byte buffer and write it to the response writer.  Bytes
+     * at the end of the buffer that do not make up a whole char are kept
+     * in the buffer.
+     */
+    private void decodeByteBuffer() throws IOException {
+        if (decoder == null || !decoder.charset().equals(byteCharset)) {
+            decoder = byteCharset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        } else {
+            decoder.reset();
+        }
+        if (decodeBuf == null) {
+            decodeBuf = new char[1024];
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes, 0, bytePos);
+        java.nio.CharBuffer chars = java.nio.CharBuffer.wrap(decodeBuf);
+        for (;;) {
+            CoderResult result = decoder.decode(in, chars, false);
+            out.write(decodeBuf, 0, chars.position());
+            chars.clear();
+            if (!result.isOverflow()) {
+                break;
+            }
+        }
+        bytePos = in.remaining();
+        System.arraycopy(bytes, in.position(), bytes, 0, bytePos);
+    }
+
+    /**
+     * Get the response output stream, unless the response writer is
+     * already in use, or the response encoding is no longer that of the
+     * byte buffer.
+     */
+    private void initStream() throws IOException {
+        if (stream != null || out != null) {
+            return;
+        }
+        String encoding = response.getCharacterEncoding();
+        if (!byteEncoding.equalsIgnoreCase(encoding)) {
+            return;
+        }
+        try {
+            // Set the character encoding explicitly, as getWriter() would
+            response.setCharacterEncoding(encoding);
+            stream = response.getOutputStream();
+        } catch (IllegalStateException ex) {
+            // getWriter() has already been called, by the page itself, or
+            // by an included resource.  Fall back to use the writer.
+        }
     }
 
 
@@ -350,13 +792,20 @@ public class JspWriterImpl extends JspWriter {
         if (bufferSize == 0) {
             initOut();
             out.write(c);
-        }
-        else {
-            if (getRemaining() == 0)
+        } else if (bytes != null) {
+            writeToByteBuffer(c);
+        } else {
+            if (getRemaining() == 0) {
                 if (autoFlush)
                     flushBuffer();
                 else
                     bufferOverflow();
+                if (bytes != null) {
+                    // Switched to the byte buffer by flushBuffer()
+                    writeToByteBuffer(c);
+                    return;
+                }
+            }
             buf.buf[buf.pos++] = (char) c;
         }
     }
@@ -402,6 +851,11 @@ public class JspWriterImpl extends JspWriter {
             return;
         } 
 
+        if (bytes != null) {
+            encodeToByteBuffer(java.nio.CharBuffer.wrap(cbuf, off, len));
+            return;
+        }
+
         if (len >= bufferSize) {
             /* If the request length exceeds the size of the output buffer,
                flush the buffer and then write the data directly.  In this
@@ -410,7 +864,12 @@ public class JspWriterImpl extends JspWriter {
                 flushBuffer();
             else
                 bufferOverflow();
+            if (bytes != null) {
+                encodeToByteBuffer(java.nio.CharBuffer.wrap(cbuf, off, len));
+                return;
+            }
             initOut();
+            written += len;
             out.write(cbuf, off, len);
             return;
         }
@@ -421,11 +880,18 @@ public class JspWriterImpl extends JspWriter {
             System.arraycopy(cbuf, b, buf.buf, buf.pos, d);
             b += d;
             buf.pos += d;
-            if (getRemaining() == 0) 
+            if (getRemaining() == 0) {
                 if (autoFlush)
                     flushBuffer();
                 else
                     bufferOverflow();
+                if (bytes != null) {
+                    // Switched to the byte buffer by flushBuffer()
+                    encodeToByteBuffer(
+                        java.nio.CharBuffer.wrap(cbuf, b, t - b));
+                    return;
+                }
+            }
         }
 
     }
@@ -438,6 +904,44 @@ public class JspWriterImpl extends JspWriter {
 	write(buf, 0, buf.length);
     }
 
+    /**
+     * Write a String, escaping the characters that are special in XML.
+     * The chars are escaped straight into the buffer.
+     *
+     * @param  s     String to be written
+     */
+    public void writeEscapedXml(String s) throws IOException {
+        ensureOpen();
+        int max = JspRuntimeLibrary.MAX_XML_ENTITY_LENGTH;
+        int i = 0, len = s.length();
+        while (i < len) {
+            if (bufferSize < max || bytes != null || !autoFlush) {
+                // Let write() encode, or report an overflow exactly
+                JspRuntimeLibrary.writeEscapedXml(this, s, i, len);
+                return;
+            }
+            // Room enough even if every char is escaped
+            int n = min((buf.lim - buf.pos) / max, len - i);
+            if (n == 0) {
+                flushBuffer();
+                continue;
+            }
+            char[] cb = buf.buf;
+            int pos = buf.pos;
+            for (int end = i + n; i < end; i++) {
+                char c = s.charAt(i);
+                String entity = JspRuntimeLibrary.xmlEntity(c);
+                if (entity == null) {
+                    cb[pos++] = c;
+                } else {
+                    entity.getChars(0, entity.length(), cb, pos);
+                    pos += entity.length();
+                }
+            }
+            buf.pos = pos;
+        }
+    }
+
     /**
      * Write a portion of a String.
      *
@@ -452,17 +956,27 @@ public class JspWriterImpl extends JspWriter {
             out.write(s, off, len);
             return;
         }
+        if (bytes != null) {
+            encodeToByteBuffer(java.nio.CharBuffer.wrap(s, off, off + len));
+            return;
+        }
         int b = off, t = off + len;
         while (b < t) {
             int d = min(getRemaining(), t - b);
             s.getChars(b, b + d, buf.buf, buf.pos);
             b += d;
             buf.pos += d;
-            if (getRemaining() == 0) 
+            if (getRemaining() == 0) {
                 if (autoFlush)
                     flushBuffer();
                 else
                     bufferOverflow();
+                if (bytes != null) {
+                    // Switched to the byte buffer by flushBuffer()
+                    encodeToByteBuffer(java.nio.CharBuffer.wrap(s, b, t));
+                    return;
+                }
+            }
         }
     }
 
@@ -516,7 +1030,7 @@ public class JspWriterImpl extends JspWriter {
      * @param      c   The <code>char</code> to be printed
      */
     public void print(char c) throws IOException {
-	write(String.valueOf(c));
+	write(c);
     }
 
     /**
@@ -529,7 +1043,7 @@ public class JspWriterImpl extends JspWriter {
      * @param      i   The <code>int</code> to be printed
      */
     public void print(int i) throws IOException {
-	write(String.valueOf(i));
+	print((long) i);
     }
 
     /**
@@ -542,7 +1056,14 @@ public class JspWriterImpl extends JspWriter {
      * @param      l   The <code>long</code> to be printed
      */
     public void print(long l) throws IOException {
-	write(String.valueOf(l));
+        ensureOpen();
+        if (bufferSize != 0 && bytes == null &&
+                buf.lim - buf.pos >= MAX_NUMBER_CHARS) {
+            // Write the digits straight into the buffer
+            buf.pos += formatLong(l, buf.buf, buf.pos);
+            return;
+        }
+        writeNumber(formatLong(l, numberChars, 0));
     }
 
     /**
@@ -555,7 +1076,13 @@ public class JspWriterImpl extends JspWriter {
      * @param      f   The <code>float</code> to be printed
      */
     public void print(float f) throws IOException {
-	write(String.valueOf(f));
+        int len = formatFloat(f, numberChars, 0);
+        if (len < 0) {
+            write(String.valueOf(f));
+        } else {
+            ensureOpen();
+            writeNumber(len);
+        }
     }
 
     /**
@@ -568,7 +1095,139 @@ public class JspWriterImpl extends JspWriter {
      * @param      d   The <code>double</code> to be printed
      */
     public void print(double d) throws IOException {
-	write(String.valueOf(d));
+        int len = formatDouble(d, numberChars, 0);
+        if (len < 0) {
+            write(String.valueOf(d));
+        } else {
+            ensureOpen();
+            writeNumber(len);
+        }
+    }
+
+    /**
+     * Write a number formatted in numberChars.
+     */
+    private void writeNumber(int len) throws IOException {
+        if (bytes != null && encodeMode != ENCODE_WITH_ENCODER &&
+                pendingSurrogate == 0 && byteLimit - bytePos >= len) {
+            // The chars are all ASCII
+            for (int i = 0; i < len; i++) {
+                bytes[bytePos++] = (byte) numberChars[i];
+            }
+        } else {
+            write(numberChars, 0, len);
+        }
+    }
+
+    /**
+     * Format a long into a char array, as Long.toString() would.
+     *
+     * @return The number of chars written
+     */
+    static int formatLong(long l, char[] cbuf, int off) {
+        if (l == Long.MIN_VALUE) {
+            String s = "-9223372036854775808";
+            s.getChars(0, s.length(), cbuf, off);
+            return s.length();
+        }
+        long v = (l < 0) ? -l : l;
+        int len = (l < 0) ? 2 : 1;
+        for (long t = v; t >= 10; t /= 10) {
+            len++;
+        }
+        int pos = off + len;
+        do {
+            cbuf[--pos] = (char) ('0' + (int) (v % 10));
+            v /= 10;
+        } while (v != 0);
+        if (l < 0) {
+            cbuf[--pos] = '-';
+        }
+        return len;
+    }
+
+    /**
+     * Format a double into a char array, as Double.toString() would, if
+     * Double.toString() writes it in plain decimal notation with at most
+     * 8 fraction digits.
+     *
+     * @return The number of chars written, or -1 if the double cannot be
+     *         formatted without using Double.toString()
+     */
+    static int formatDouble(double d, char[] cbuf, int off) {
+        if (d == 0) {
+            return formatZero(Double.doubleToRawLongBits(d) != 0, cbuf, off);
+        }
+        double abs = Math.abs(d);
+        if (!(abs >= 1e-3 && abs < 1e7)) {
+            // Scientific notation, or NaN
+            return -1;
+        }
+        // Find the fewest fraction digits that give back the same double
+        for (int k = 0; k < POW10.length; k++) {
+            long m = Math.round(abs * POW10[k]);
+            if (m / POW10[k] != abs) {
+                continue;
+            }
+            int pos = off;
+            if (d < 0) {
+                cbuf[pos++] = '-';
+            }
+            int digits = formatLong(m, cbuf, pos);
+            if (k == 0) {
+                pos += digits;
+                cbuf[pos++] = '.';
+                cbuf[pos++] = '0';
+            } else if (digits > k) {
+                int intDigits = digits - k;
+                System.arraycopy(cbuf, pos + intDigits,
+                                 cbuf, pos + intDigits + 1, k);
+                cbuf[pos + intDigits] = '.';
+                pos += digits + 1;
+            } else {
+                int zeros = k - digits;
+                System.arraycopy(cbuf, pos, cbuf, pos + 2 + zeros, digits);
+                cbuf[pos++] = '0';
+                cbuf[pos++] = '.';
+                for (int i = 0; i < zeros; i++) {
+                    cbuf[pos++] = '0';
+                }
+                pos += digits;
+            }
+            return pos - off;
+        }
+        return -1;
+    }
+
+    /**
+     * Format a float into a char array, as Float.toString() would, if it
+     * is a whole number below 10^7.
+     *
+     * @return The number of chars written, or -1 if the float cannot be
+     *         formatted without using Float.toString()
+     */
+    static int formatFloat(float f, char[] cbuf, int off) {
+        if (f == 0) {
+            return formatZero(Float.floatToRawIntBits(f) != 0, cbuf, off);
+        }
+        if (!(Math.abs(f) < 1e7f) || f != (long) f) {
+            return -1;
+        }
+        int len = formatLong((long) f, cbuf, off);
+        cbuf[off + len] = '.';
+        cbuf[off + len + 1] = '0';
+        return len + 2;
+    }
+
+    private static int formatZero(boolean negative, char[] cbuf, int off) {
+        int pos = off;
+        if (negative) {
+            cbuf[pos++] = '-';
+        }
+        cbuf[pos++] = '0';
+        cbuf[pos++] = '.';
+        cbuf[pos++] = '0';
+        return pos - off;
     }
 
     /**
@@ -723,6 +1382,9 @@ public class JspWriterImpl extends JspWriter {
 
     // START PWC 6512276
     public boolean hasData() {
+        if (bytes != null) {
+            return bytePos != 0;
+        }
         if (bufferSize != 0 && buf.pos != buf.offset) {
             return true;
         }
@@ -734,31 +1396,55 @@ public class JspWriterImpl extends JspWriter {
     private void allocateCharBuffer() {
         if (bufferSize == 0) return;
         
-        if (bufferSize > MAX_BUFFER_SIZE) {
-            buf =  new CharBuffer(new char[bufferSize], 0, bufferSize);
-        } else {
-            buf = getCharBufferThreadLocalPool().allocate(bufferSize);
-        }
+        buf = new CharBuffer(bufferPool.allocateChars(bufferSize), 0,
+                             bufferSize);
     }
     
     private void releaseCharBuffer() {
         if (buf == null) return;
         
-        if ((buf.lim - buf.offset) <= MAX_BUFFER_SIZE) {
-            getCharBufferThreadLocalPool().release(buf);
-        }
+        bufferPool.releaseChars(buf.buf);
         buf = null;
     }
     
-    private CharBufferThreadLocalPool getCharBufferThreadLocalPool() {
-        CharBufferThreadLocalPool pool = charBufferPools.get();
-        if (pool == null) {
-            pool = new CharBufferThreadLocalPool();
-            charBufferPools.set(pool);
+    private void allocateByteBuffer(int size) {
+        bytes = bufferPool.allocateBytes(size);
+        bytePos = 0;
+        byteLimit = size;
+    }
+
+    private void releaseByteBuffer() {
+        if (bytes == null) return;
+
+        bufferPool.releaseBytes(bytes);
+        bytes = null;
+        bytePos = 0;
+        byteLimit = 0;
+        byteEncoding = null;
+        byteCharset = null;
+        pendingSurrogate = 0;
+    }
+
+    /**
+     * The pool of the buffers of all JspWriterImpl's and BodyContentImpl's.
+     */
+    static BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    private static BufferPool createBufferPool(String className) {
+        if (className != null) {
+            try {
+                return Class.forName(className)
+                    .asSubclass(BufferPool.class).newInstance();
+            } catch (Exception e) {
+                log.log(Level.WARNING,
+                        "Cannot create buffer pool " + className, e);
+            }
         }
-        return pool;
+        return new StripedBufferPool();
     }
-    
+
     private static class CharBuffer {
         char[] buf;
         int offset;
@@ -772,31 +1458,4 @@ public class JspWriterImpl extends JspWriter {
             this.lim = offset + length;
         }
     }
-    
-    private static class CharBufferThreadLocalPool {
-        private char[] pool;
-        private int pos;
-        
-        public CharBuffer allocate(int size) {
-            if (remaining() < size) {
-                pool = new char[MAX_BUFFER_SIZE];
-                pos = 0;
-            }
-            
-            CharBuffer allocated = new CharBuffer(pool, pos, size);
-            pos += size;
-            
-            return allocated;
-        }
-        
-        public void release(CharBuffer buffer) {
-            if (buffer.buf == pool && buffer.lim == pos) {
-               pos = buffer.offset; 
-            }
-        }
-        
-        public int remaining() {
-            return pool == null ? 0 : pool.length - pos;
-        }
-    }
 }
@@ -67,7 +67,7 @@ import java.security.PrivilegedExceptionAction;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -89,23 +89,15 @@ import javax.servlet.jsp.JspApplicationContext;
 import javax.servlet.jsp.tagext.BodyContent;
 import javax.servlet.jsp.el.ExpressionEvaluator;
 import javax.servlet.jsp.el.VariableResolver;
-import javax.servlet.jsp.el.ImplicitObjectELResolver;
-import javax.servlet.jsp.el.ScopedAttributeELResolver;
 
 import javax.el.ELException;
-import javax.el.ELResolver;
 import javax.el.ELContext;
-import javax.el.BeanELResolver;
-import javax.el.ArrayELResolver;
-import javax.el.MapELResolver;
-import javax.el.ResourceBundleELResolver;
-import javax.el.ListELResolver;
-import javax.el.CompositeELResolver;
 import javax.el.ValueExpression;
 import javax.el.FunctionMapper;
 import javax.el.MethodExpression;
 import javax.el.ExpressionFactory;
-import javax.el.StaticFieldELResolver;
+import javax.el.EvaluationListener;
+import javax.el.VariableMapper;
 
 import org.apache.jasper.Constants;
 import org.apache.jasper.compiler.Localizer;
@@ -127,9 +119,17 @@ public class PageContextImpl extends PageContext {
     // Logger
     private static Logger log = Logger.getLogger(PageContextImpl.class.getName());
 
+    private static final BodyContentImpl[] NO_OUTS = new BodyContentImpl[0];
+
+    // A page attribute map that has held more attributes is replaced on
+    // release, rather than cleared, so as not to keep its table
+    private static final int MAX_RETAINED_ATTRIBUTES = 32;
+
     // per-servlet state
     private BodyContentImpl[] outs;
     private int depth;
+    // Number of body contents used since initialize
+    private int outsUsed;
     private Servlet servlet;
     private ServletConfig config;
     private ServletContext context;
@@ -137,14 +137,19 @@ public class PageContextImpl extends PageContext {
     private boolean needsSession;
     private String errorPageURL;
     private int	bufferSize;
+    private AdaptiveBufferSize adaptiveBufferSize;
     private JspApplicationContextImpl jspApplicationContext;
-    private ELResolver elResolver;
     private ELContext elContext;
 
     // page-scope attributes
     private HashMap<String, Object> attributes;
     private boolean isNametableInitialized;
 
+    // True once released, until initialized again
+    private boolean released;
+    // Where this page context was released, if JspFactoryImpl.POOL_DEBUG
+    private Throwable releasedAt;
+
     // per-request state
     private ServletRequest request;
     private ServletResponse response;
@@ -159,7 +164,7 @@ public class PageContextImpl extends PageContext {
      */
     PageContextImpl(JspFactory factory) {
         this.factory = factory;
-	this.outs = new BodyContentImpl[0];
+	this.outs = NO_OUTS;
 	this.attributes = new HashMap<String, Object>(16);
 	this.depth = -1;
     }
@@ -185,11 +190,25 @@ public class PageContextImpl extends PageContext {
 			     boolean autoFlush) throws IOException {
 
 	// initialize state
+	this.released = false;
+	this.releasedAt = null;
 	this.servlet = servlet;
 	this.config = servlet.getServletConfig();
 	this.context = config.getServletContext();
 	this.needsSession = needsSession;
 	this.errorPageURL = errorPageURL;
+	if (bufferSize == JspWriter.DEFAULT_BUFFER) {
+	    // The page did not specify its buffer size.  Without autoFlush,
+	    // a response larger than the buffer is an error, so such a page
+	    // keeps the default size
+	    if (autoFlush && servlet instanceof HttpJspBase) {
+		adaptiveBufferSize =
+		    ((HttpJspBase) servlet).getAdaptiveBufferSize();
+	    }
+	    bufferSize = (adaptiveBufferSize != null) ?
+		adaptiveBufferSize.getBufferSize() :
+		Constants.DEFAULT_BUFFER_SIZE;
+	}
 	this.bufferSize = bufferSize;
 	this.request = request;
  	this.response = response;
@@ -232,21 +251,37 @@ public class PageContextImpl extends PageContext {
     }
 
     public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (JspFactoryImpl.POOL_DEBUG) {
+            releasedAt = new Throwable(Localizer.getMessage(
+                "jsp.message.pageContext.releasedAt",
+                Thread.currentThread().getName()));
+        }
         out = baseOut;
 	try {
             // Do not flush the buffer even if we're not included (i.e.
             // we are the main page. The servlet will flush it and close
             // the stream.
-            ((JspWriterImpl)out).flushBuffer();
+            if (request.getAttribute(Constants.INC_SERVLET_PATH) == null) {
+                ((JspWriterImpl)out).flushLastBuffer();
+            } else {
+                ((JspWriterImpl)out).flushBuffer();
+            }
 	} catch (IOException ex) {
 	    log.warning("Internal error flushing the buffer in release()");
 	}
+        if (adaptiveBufferSize != null) {
+            adaptiveBufferSize.record(baseOut.getWritten());
+            adaptiveBufferSize = null;
+        }
 
 	servlet = null;
 	config = null;
 	context = null;
         elContext = null;
-        elResolver = null;
         jspApplicationContext = null;
 	needsSession = false;
 	errorPageURL = null;
@@ -256,8 +291,43 @@ public class PageContextImpl extends PageContext {
         depth = -1;
 	baseOut.recycle();
 	session = null;
+        if (BodyContentRecycler.ENABLED) {
+            // Hand the body contents over to the next page context
+            BodyContentRecycler.recycle(outs, outsUsed);
+            outs = NO_OUTS;
+        } else {
+            // Return the buffers of the body contents to the pool
+            for (int i = 0; i < outs.length; i++) {
+                outs[i].recycle(0);
+            }
+        }
+        outsUsed = 0;
 
-	attributes.clear();
+        if (attributes.size() > MAX_RETAINED_ATTRIBUTES) {
+            attributes = new HashMap<String, Object>(16);
+        } else {
+            attributes.clear();
+        }
+        isNametableInitialized = false;
+    }
+
+    /**
+     * Has this page context been released since it was last initialized?
+     */
+    boolean isReleased() {
+        return released;
+    }
+
+    /*
+     * Fails the use of this page context after it has been released, if
+     * JspFactoryImpl.POOL_DEBUG.  Once pooled, the page context may already
+     * serve another request.
+     */
+    private void checkReleased() {
+        if (JspFactoryImpl.POOL_DEBUG && released) {
+            throw new IllegalStateException(Localizer.getMessage(
+                "jsp.error.pageContext.released"), releasedAt);
+        }
     }
 
     public Object getAttribute(final String name) {
@@ -280,6 +350,7 @@ public class PageContextImpl extends PageContext {
     }
 
     private Object doGetAttribute(String name){
+        checkReleased();
         if (!isNametableInitialized) {
             initializePageScopeNameTable();
         }
@@ -306,6 +377,7 @@ public class PageContextImpl extends PageContext {
     }
 
     private Object doGetAttribute(String name, int scope){
+        checkReleased();
         switch (scope) {
             case PAGE_SCOPE:
                 if (!isNametableInitialized) {
@@ -351,6 +423,7 @@ public class PageContextImpl extends PageContext {
     }
 
     private void doSetAttribute(String name, Object attribute){
+        checkReleased();
         if (attribute != null) {
             if (!isNametableInitialized) {
                 initializePageScopeNameTable();
@@ -382,6 +455,7 @@ public class PageContextImpl extends PageContext {
     }
 
     private void doSetAttribute(String name, Object o, int scope ){
+        checkReleased();
         if (o != null) {
             switch (scope) {
             case PAGE_SCOPE:
@@ -434,6 +508,7 @@ public class PageContextImpl extends PageContext {
     }
 
     private void doRemoveAttribute(String name, int scope){
+        checkReleased();
         switch (scope) {
         case PAGE_SCOPE:
             if (!isNametableInitialized) {
@@ -482,6 +557,7 @@ public class PageContextImpl extends PageContext {
     }
 
     private int doGetAttributeScope(String name){
+        checkReleased();
 
         if (!isNametableInitialized) {
             initializePageScopeNameTable();
@@ -532,6 +608,7 @@ public class PageContextImpl extends PageContext {
     }
 
     private Object doFindAttribute(String name){
+        checkReleased();
 
         if (!isNametableInitialized) {
             initializePageScopeNameTable();
@@ -574,6 +651,7 @@ public class PageContextImpl extends PageContext {
     }
 
     private Enumeration<String> doGetAttributeNamesInScope(int scope){
+        checkReleased();
         switch (scope) {
         case PAGE_SCOPE:
             if (!isNametableInitialized) {
@@ -619,6 +697,7 @@ public class PageContextImpl extends PageContext {
     }
 
     private void doRemoveAttribute(String name){
+        checkReleased();
         removeAttribute(name, PAGE_SCOPE);
         removeAttribute(name, REQUEST_SCOPE);
         if( session != null ) {
@@ -633,6 +712,7 @@ public class PageContextImpl extends PageContext {
     }
         
     public JspWriter getOut() {
+        checkReleased();
 	return out;
     }
 
@@ -687,6 +767,7 @@ public class PageContextImpl extends PageContext {
 
     public void include(String relativeUrlPath)
 	        throws ServletException, IOException {
+        checkReleased();
         JspRuntimeLibrary.include(request, response, relativeUrlPath, out,
 				  true);
     }
@@ -698,6 +779,7 @@ public class PageContextImpl extends PageContext {
      */
     public void include(String relativeUrlPath, boolean flush)
 	        throws ServletException, IOException {
+        checkReleased();
         JspRuntimeLibrary.include(request, response, relativeUrlPath, out,
 				  flush);
     }
@@ -706,40 +788,11 @@ public class PageContextImpl extends PageContext {
         return new VariableResolverImpl(this);
     }
 
-    private ELResolver getELResolver() {
-                                                                                
-        if (elResolver == null) {
-            // Create a CompositeELResolver
-            CompositeELResolver celResolver = new CompositeELResolver();
-                                                                                
-            celResolver.add(new ImplicitObjectELResolver());
-            // Add ELResolvers registered in JspApplicationContext
-            JspApplicationContextImpl jaContext = getJspApplicationContext();
-            Iterator<ELResolver> it = jaContext.getELResolvers();
-            while (it.hasNext()) {
-                celResolver.add(it.next());
-            }
-            ELResolver streamELResolver =
-                getExpressionFactory(this).getStreamELResolver();
-            if (streamELResolver != null) {
-                celResolver.add(streamELResolver);
-            }
-            celResolver.add(new StaticFieldELResolver());
-            celResolver.add(new MapELResolver());
-            celResolver.add(new ResourceBundleELResolver());
-            celResolver.add(new ListELResolver());
-            celResolver.add(new ArrayELResolver());
-            celResolver.add(new BeanELResolver());
-            celResolver.add(new ScopedAttributeELResolver());
-            elResolver = celResolver;
-        }
-        return elResolver;
-    }
-                                                                                
     public ELContext getELContext() {
+        checkReleased();
         if (elContext == null) {
-            elContext = getJspApplicationContext().createELContext(
-                            getELResolver());
+            JspApplicationContextImpl jaContext = getJspApplicationContext();
+            elContext = jaContext.createELContext(jaContext.getELResolver());
             elContext.putContext(javax.servlet.jsp.JspContext.class, this);
             ((ELContextImpl)elContext).setVariableMapper(
                 new VariableMapperImpl());
@@ -747,6 +800,33 @@ public class PageContextImpl extends PageContext {
         return elContext;
     }
 
+    /**
+     * Tells whether EL expressions evaluated against this page context
+     * resolve exactly as with the standard ELResolvers: no ELResolver
+     * or ELContextListener has been added to the application, and the
+     * ELContext, if created, has no variables and no EvaluationListeners.
+     * Expressions compiled into the page rely on this to bypass the
+     * ExpressionFactory.
+     */
+    boolean isStandardELContext() {
+        if (getJspApplicationContext().hasELExtensions()) {
+            return false;
+        }
+        if (elContext != null) {
+            VariableMapper variableMapper = elContext.getVariableMapper();
+            if (!(variableMapper instanceof VariableMapperImpl)
+                    || !((VariableMapperImpl) variableMapper).isEmpty()) {
+                return false;
+            }
+            List<EvaluationListener> listeners =
+                elContext.getEvaluationListeners();
+            if (listeners != null && !listeners.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     JspApplicationContextImpl getJspApplicationContext() {
         if (jspApplicationContext == null) {
             jspApplicationContext =
@@ -763,6 +843,8 @@ public class PageContextImpl extends PageContext {
     public void forward(String relativeUrlPath)
         throws ServletException, IOException{
 
+        checkReleased();
+
         // JSP.4.5 If the buffer was flushed, throw IllegalStateException
         try {
             out.clear();
@@ -801,14 +883,21 @@ public class PageContextImpl extends PageContext {
 	return (BodyContent) pushBody(null);
     }
 
-    // Note that there is a potential memory leak with way BodyContentImpl
-    // are pooled.  The "outs" array is extended in pushBody, but not shrinked
-    // in popBody; and BodyContentImpl.cb can gets arbritarily large.
-    // See https://glassfish.dev.java.net/issues/show_bug.cgi?id=8601
-    // Setting FactoryImpl.USE_POOL to false eliminates most of the leak,
-    // but not all -- kchung 6/29/2009
+    // The "outs" array is extended in pushBody, but not shrinked in popBody.
+    // It is handed over to BodyContentRecycler in release(), which trims it
+    // to what was used, and keeps at most one buffer segment per
+    // BodyContentImpl.  See also
+    // https://glassfish.dev.java.net/issues/show_bug.cgi?id=8601
     public JspWriter pushBody(Writer writer) {
+        checkReleased();
         depth++;
+        if (depth >= outs.length && outs.length == 0 &&
+                BodyContentRecycler.ENABLED) {
+            BodyContentImpl[] recycled = BodyContentRecycler.get();
+            if (recycled != null) {
+                outs = recycled;
+            }
+        }
         if (depth >= outs.length) {
             BodyContentImpl[] newOuts = new BodyContentImpl[depth + 1];
             for (int i=0; i<outs.length; i++) {
@@ -818,6 +907,10 @@ public class PageContextImpl extends PageContext {
             outs = newOuts;
         }
 
+        if (depth >= outsUsed) {
+            outsUsed = depth + 1;
+        }
+        outs[depth].setEnclosingWriter(out);
 	outs[depth].setWriter(writer);
         out = outs[depth];
 
@@ -829,6 +922,7 @@ public class PageContextImpl extends PageContext {
     }
 
     public JspWriter popBody() {
+        checkReleased();
         depth--;
         if (depth >= 0) {
             out = outs[depth];
@@ -890,6 +984,7 @@ public class PageContextImpl extends PageContext {
 
     private void doHandlePageException(Throwable t)
         throws IOException, ServletException {
+        checkReleased();
 
         if (errorPageURL != null && !errorPageURL.equals("")) {
 
@@ -958,9 +1053,15 @@ public class PageContextImpl extends PageContext {
     private static ExpressionFactory getExpressionFactory(
             PageContext pageContext) {
 
+        return getJspApplicationContext(pageContext).getExpressionFactory();
+    }
+
+    private static JspApplicationContextImpl getJspApplicationContext(
+            PageContext pageContext) {
+
         PageContextImpl pc =
             (PageContextImpl) JspContextWrapper.getRootPageContext(pageContext);
-        return pc.getJspApplicationContext().getExpressionFactory();
+        return pc.getJspApplicationContext();
     }
 
     /**
@@ -988,12 +1089,11 @@ public class PageContextImpl extends PageContext {
                         ELContextImpl elContext =
                             (ELContextImpl) pageContext.getELContext();
                         elContext.setFunctionMapper(functionMap);
-                        ExpressionFactory expFactory = getExpressionFactory(pageContext);
                         ValueExpression expr =
-                             expFactory.createValueExpression(
-                                                   elContext,
-                                                   expression,
-                                                   expectedType);
+                            getJspApplicationContext(pageContext)
+                                .createValueExpression(elContext,
+                                                       expression,
+                                                       expectedType);
                         return expr.getValue(elContext);
                     }
                 });
@@ -1008,8 +1108,8 @@ public class PageContextImpl extends PageContext {
         } else {
             ELContextImpl elContext = (ELContextImpl)pageContext.getELContext();
             elContext.setFunctionMapper(functionMap);
-            ExpressionFactory expFactory = getExpressionFactory(pageContext);
-            ValueExpression expr = expFactory.createValueExpression(
+            ValueExpression expr =
+                getJspApplicationContext(pageContext).createValueExpression(
                                            elContext,
                                            expression,
                                            expectedType);
@@ -1026,8 +1126,8 @@ public class PageContextImpl extends PageContext {
         // ELResolvers are not used in createValueExpression
         ELContextImpl elctxt = (ELContextImpl)pageContext.getELContext();
         elctxt.setFunctionMapper(functionMap);
-        ExpressionFactory expFactory = getExpressionFactory(pageContext);
-        return expFactory.createValueExpression(elctxt,
+        return getJspApplicationContext(pageContext).createValueExpression(
+                                                elctxt,
                                                 expression,
                                                 expectedType);
     }
@@ -1041,8 +1141,7 @@ public class PageContextImpl extends PageContext {
                                                                                 
         ELContextImpl elctxt = (ELContextImpl)pageContext.getELContext();
         elctxt.setFunctionMapper(functionMap);
-        ExpressionFactory expFactory = getExpressionFactory(pageContext);
-        return expFactory.createMethodExpression(
+        return getJspApplicationContext(pageContext).createMethodExpression(
                                     elctxt,
                                     expression,
                                     expectedType,
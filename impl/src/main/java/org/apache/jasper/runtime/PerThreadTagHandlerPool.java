@@ -55,37 +55,76 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package org.apache.jasper.runtime;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.Vector;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.tagext.JspTag;
 
-import org.apache.jasper.Constants;
-
 /**
  * Thread-local based pool of tag handlers that can be reused.
  *
+ * Each thread keeps up to tagpoolMaxSize handlers of its own.  A thread's
+ * handlers are evicted once the thread has died, or has not used the pool
+ * for tagpoolIdleTimeout seconds, and no more than tagpoolMaxRetained
+ * handlers are kept across all threads.  Threads are only weakly
+ * referenced by the pool, so a pool never keeps a thread reachable.
+ *
+ * Select it with the tagpoolClassName init parameter:
+ * org.apache.jasper.runtime.PerThreadTagHandlerPool
+ *
  * @author Jan Luehe
  * @author Costin Manolache
  */
 public class PerThreadTagHandlerPool extends TagHandlerPool {
 
+    public static final String OPTION_IDLE_TIMEOUT="tagpoolIdleTimeout";
+    public static final String OPTION_MAX_RETAINED="tagpoolMaxRetained";
+
+    private static final int DEFAULT_IDLE_TIMEOUT = 60;
+    private static final int DEFAULT_MAX_RETAINED = 256;
+
     private int maxSize;
+    private long idleTimeout;
+    private int maxRetained;
+
+    // The handlers of all threads, for eviction and cleanup
+    private final ConcurrentLinkedQueue<PerThreadData> perThreadDataQueue =
+        new ConcurrentLinkedQueue<PerThreadData>();
 
-    // For cleanup
-    private Vector<PerThreadData> perThreadDataVector;
+    private final ThreadLocal<PerThreadData> perThread =
+        new ThreadLocal<PerThreadData>();
 
-    private ThreadLocal<PerThreadData> perThread;
+    // Number of handlers kept across all threads
+    private final AtomicInteger retained = new AtomicInteger();
 
+    // When the idle threads were last looked for
+    private final AtomicLong lastEviction = new AtomicLong();
+
+    /*
+     * The handlers of a thread.  The lock is only contended while the
+     * handlers are being evicted by another thread.
+     */
     private static class PerThreadData {
+        final WeakReference<Thread> owner;
+        final ReentrantLock lock = new ReentrantLock();
         JspTag handlers[];
-        int current;
+        int current = -1;
+        volatile long lastUsed;
+        // Set once the handlers are evicted; the thread then starts over
+        boolean evicted;
+
+        PerThreadData(Thread owner, int maxSize) {
+            this.owner = new WeakReference<Thread>(owner);
+            this.handlers = new JspTag[maxSize];
+        }
     }
 
     /**
@@ -93,28 +132,16 @@ public class PerThreadTagHandlerPool extends TagHandlerPool {
      */
     public PerThreadTagHandlerPool() {
         super();
-        perThreadDataVector = new Vector<PerThreadData>();
     }
 
     protected void init(ServletConfig config) {
-        maxSize = Constants.MAX_POOL_SIZE;
-        String maxSizeS = getOption(config, OPTION_MAXSIZE, null);
-        if (maxSizeS != null) {
-            maxSize = Integer.parseInt(maxSizeS);
-            if (maxSize < 0) {
-                maxSize = Constants.MAX_POOL_SIZE;
-            }
-        }
-
-        perThread = new ThreadLocal<PerThreadData>() {
-            protected PerThreadData initialValue() {
-                PerThreadData ptd = new PerThreadData();
-                ptd.handlers = new Tag[maxSize];
-                ptd.current = -1;
-                perThreadDataVector.addElement(ptd);
-                return ptd;
-            }
-        };
+        super.init(config);
+        maxSize = getCapacity();
+        idleTimeout = 1000L * getIntOption(config, OPTION_IDLE_TIMEOUT,
+                                           DEFAULT_IDLE_TIMEOUT);
+        maxRetained = getIntOption(config, OPTION_MAX_RETAINED,
+                                   DEFAULT_MAX_RETAINED);
+        lastEviction.set(System.currentTimeMillis());
     }
 
     /**
@@ -127,17 +154,48 @@ public class PerThreadTagHandlerPool extends TagHandlerPool {
      *
      * @throws JspException if a tag handler cannot be instantiated
      */
-    public Tag get(Class handlerClass) throws JspException {
-        PerThreadData ptd = perThread.get();
-        if(ptd.current >=0 ) {
-            return ptd.handlers[ptd.current--];
-        } else {
-	    try {
-		return (Tag) handlerClass.newInstance();
-	    } catch (Exception e) {
-		throw new JspException(e.getMessage(), e);
-	    }
-	}
+    public <T extends JspTag> JspTag get(Class<T> handlerClass)
+            throws JspException {
+        JspTag handler = getPooled();
+        if (handler != null) {
+            return handler;
+        }
+        if (isStatisticsEnabled()) {
+            countCheckout(false);
+        }
+        return newTagHandler(handlerClass);
+    }
+
+    /**
+     * Gets the next available tag handler from this tag handler pool,
+     * without instantiating one if this tag handler pool is empty.
+     *
+     * The tag handler was last used with the same attribute set, so its
+     * properties may still hold the values set by that use.
+     *
+     * @return Reused tag handler, or null if this tag handler pool is empty
+     */
+    public JspTag getPooled() {
+        long now = System.currentTimeMillis();
+        evictIdle(now);
+        PerThreadData ptd = getPerThreadData(now);
+        JspTag handler = null;
+        ptd.lock.lock();
+        try {
+            if (!ptd.evicted && ptd.current >= 0) {
+                handler = ptd.handlers[ptd.current];
+                ptd.handlers[ptd.current--] = null;
+            }
+        } finally {
+            ptd.lock.unlock();
+        }
+        if (handler != null) {
+            retained.decrementAndGet();
+            if (isStatisticsEnabled()) {
+                countCheckout(true);
+            }
+        }
+        return handler;
     }
 
     /**
@@ -145,32 +203,113 @@ public class PerThreadTagHandlerPool extends TagHandlerPool {
      * handler pool has already reached its capacity, in which case the tag
      * handler's release() method is called.
      *
-     * @param handler Tag handler to add to this tag handler pool
+     * @param handler JspTag handler to add to this tag handler pool
      */
-    public void reuse(Tag handler) {
-        PerThreadData ptd=perThread.get();
-	if (ptd.current < (ptd.handlers.length - 1)) {
-	    ptd.handlers[++ptd.current] = handler;
-        } else {
-            handler.release();
+    public void reuse(JspTag handler) {
+        PerThreadData ptd = perThread.get();
+        boolean pooled = false;
+        if (ptd != null && retained.incrementAndGet() <= maxRetained) {
+            ptd.lock.lock();
+            try {
+                if (!ptd.evicted && ptd.current < (ptd.handlers.length - 1)) {
+                    ptd.handlers[++ptd.current] = handler;
+                    pooled = true;
+                }
+            } finally {
+                ptd.lock.unlock();
+            }
+        }
+        if (!pooled && ptd != null) {
+            retained.decrementAndGet();
+        }
+        if (isStatisticsEnabled()) {
+            countReturn(pooled);
+        }
+        if (!pooled) {
+            destroyTagHandler(handler);
         }
     }
 
     /**
      * Calls the release() method of all tag handlers in this tag handler pool.
      */
-    public void release() {        
-        Enumeration<PerThreadData> enumeration = perThreadDataVector.elements();
-        while (enumeration.hasMoreElements()) {
-	    PerThreadData ptd = enumeration.nextElement();
-            if (ptd.handlers != null) {
-                for (int i=ptd.current; i>=0; i--) {
-                    if (ptd.handlers[i] != null) {
-                        ptd.handlers[i].release();
-		    }
+    public void release() {
+        for (PerThreadData ptd: perThreadDataQueue) {
+            evict(ptd);
+        }
+        perThreadDataQueue.clear();
+    }
+
+    /*
+     * Gets the handlers of the current thread, starting over if they were
+     * evicted.
+     */
+    private PerThreadData getPerThreadData(long now) {
+        PerThreadData ptd = perThread.get();
+        if (ptd == null || ptd.evicted) {
+            ptd = new PerThreadData(Thread.currentThread(), maxSize);
+            perThread.set(ptd);
+            perThreadDataQueue.add(ptd);
+        }
+        ptd.lastUsed = now;
+        return ptd;
+    }
+
+    /*
+     * Evicts the handlers of the threads that have died or have been idle
+     * for longer than the idle timeout.  Runs at most every half timeout,
+     * in one thread at a time.
+     */
+    private void evictIdle(long now) {
+        long last = lastEviction.get();
+        if (now - last < idleTimeout / 2
+                || !lastEviction.compareAndSet(last, now)) {
+            return;
+        }
+        Iterator<PerThreadData> iter = perThreadDataQueue.iterator();
+        while (iter.hasNext()) {
+            PerThreadData ptd = iter.next();
+            Thread owner = ptd.owner.get();
+            if (owner == null || !owner.isAlive()
+                    || now - ptd.lastUsed > idleTimeout) {
+                iter.remove();
+                evict(ptd);
+            }
+        }
+    }
+
+    private void evict(PerThreadData ptd) {
+        JspTag[] handlers;
+        int count;
+        ptd.lock.lock();
+        try {
+            ptd.evicted = true;
+            handlers = ptd.handlers;
+            count = ptd.current + 1;
+            ptd.handlers = new JspTag[0];
+            ptd.current = -1;
+        } finally {
+            ptd.lock.unlock();
+        }
+        retained.addAndGet(-count);
+        for (int i = count - 1; i >= 0; i--) {
+            destroyTagHandler(handlers[i]);
+        }
+    }
+
+    private static int getIntOption(ServletConfig config, String name,
+                                    int defaultValue) {
+        String value = getOption(config, name, null);
+        if (value != null) {
+            try {
+                int i = Integer.parseInt(value);
+                if (i >= 0) {
+                    return i;
                 }
+            } catch (NumberFormatException ex) {
+                // Use the default
             }
         }
+        return defaultValue;
     }
 }
-
@@ -76,11 +76,22 @@ import org.glassfish.jsp.api.ByteWriter;
  * that the output of the included resource is appended to that of the
  * including page.
  *
+ * If the JspWriter of the including page can take bytes, either into its
+ * buffer or, when unbuffered, straight into a response writer that is itself
+ * a ByteWriter, the writer returned by getWriter() is also a ByteWriter, so
+ * that an included JSP page passes its pre-encoded texts, and its byte
+ * buffer, on as bytes, without decoding them.  If the system property
+ * OUTPUT_STREAM is set, getOutputStream() then also returns a stream into
+ * the JspWriter, for resources whose bytes are in the response encoding.
+ *
  * @author Pierre Delisle
  */
 
 public class ServletResponseWrapperInclude extends HttpServletResponseWrapper {
 
+    private static final boolean OUTPUT_STREAM = Boolean.getBoolean(
+        "org.apache.jasper.runtime.ServletResponseWrapperInclude.OUTPUT_STREAM");
+
     /**
      * PrintWriter which appends to the JspWriter of the including page.
      */
@@ -88,6 +99,8 @@ public class ServletResponseWrapperInclude extends HttpServletResponseWrapper {
 
     private JspWriter jspWriter;
 
+    private ServletOutputStream outputStream;
+
     // START CR 6466049
     /**
      * Indicates whether or not the wrapped JspWriter can be flushed.
@@ -121,6 +134,13 @@ public class ServletResponseWrapperInclude extends HttpServletResponseWrapper {
     }
 
     public ServletOutputStream getOutputStream() throws IOException {
+        if (OUTPUT_STREAM && printWriter instanceof PrintWriterWrapper) {
+            if (outputStream == null) {
+                outputStream =
+                    new OutputStreamWrapper((JspWriterImpl)jspWriter);
+            }
+            return outputStream;
+        }
 	throw new IllegalStateException();
     }
 
@@ -184,4 +204,24 @@ public class ServletResponseWrapperInclude extends HttpServletResponseWrapper {
             jspWriter.write(buff, off, len);
         }
     }
+
+    static private class OutputStreamWrapper extends ServletOutputStream {
+
+        private JspWriterImpl jspWriter;
+        private final byte[] oneByte = new byte[1];
+
+        OutputStreamWrapper(JspWriterImpl jspWriter) {
+            this.jspWriter = jspWriter;
+        }
+
+        public void write(int b) throws IOException {
+            oneByte[0] = (byte) b;
+            jspWriter.write(oneByte, 0, 1);
+        }
+
+        public void write(byte[] buff, int off, int len)
+                throws IOException {
+            jspWriter.write(buff, off, len);
+        }
+    }
 }
@@ -0,0 +1,266 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.jasper.runtime;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The default {@link BufferPool}, shared by all threads.
+ *
+ * Arrays are pooled by size class, each class being a power of two,
+ * from MIN_ARRAY_LENGTH to MAX_ARRAY_LENGTH; a request is served with an
+ * array of the smallest class that can hold it.  Larger arrays are
+ * allocated on demand and never pooled.
+ *
+ * The pool is split into stripes, and a thread uses the stripe selected
+ * by its id, so that threads seldom contend on the same slots.  Each
+ * stripe holds up to SLOTS arrays per size class, in slots that are taken
+ * and filled with compare-and-set, without any lock.  A stripe holds at
+ * most MAX_MEMORY / STRIPES bytes; an array released to a full stripe is
+ * left to the garbage collector.
+ *
+ * Hits and misses are counted per stripe, and can be read with
+ * getHitCount() and getMissCount().
+ */
+public class StripedBufferPool implements BufferPool {
+
+    private static final String PREFIX =
+        "org.apache.jasper.runtime.StripedBufferPool.";
+
+    private static final int MIN_ARRAY_LENGTH = 512;
+
+    private static final int MAX_ARRAY_LENGTH = Integer.getInteger(
+        PREFIX + "MAX_ARRAY_LENGTH", 32 * 1024);
+
+    private static final long MAX_MEMORY = Long.getLong(
+        PREFIX + "MAX_MEMORY", 16L * 1024 * 1024);
+
+    private static final int STRIPES = Integer.getInteger(
+        PREFIX + "STRIPES", Runtime.getRuntime().availableProcessors());
+
+    private static final int SLOTS = Integer.getInteger(
+        PREFIX + "SLOTS", 4);
+
+    // Counters of a stripe are this far apart, so that they do not share
+    // a cache line with the counters of another stripe
+    private static final int PADDING = 8;
+
+    private static final int HITS = 0;
+    private static final int MISSES = 1;
+    private static final int POOLED_BYTES = 2;
+
+    private final int stripeMask;
+    private final int classCount;
+    private final long maxStripeBytes;
+
+    // Indexed by stripe, size class and slot
+    private final AtomicReferenceArray<char[]> chars;
+    private final AtomicReferenceArray<byte[]> bytes;
+
+    private final AtomicLongArray counters;
+
+    public StripedBufferPool() {
+        int stripes = 1;
+        while (stripes < STRIPES) {
+            stripes <<= 1;
+        }
+        stripeMask = stripes - 1;
+        classCount = (MAX_ARRAY_LENGTH < MIN_ARRAY_LENGTH) ? 0 :
+            sizeClass(MAX_ARRAY_LENGTH) + 1;
+        maxStripeBytes = MAX_MEMORY / stripes;
+        chars = new AtomicReferenceArray<char[]>(
+            stripes * classCount * SLOTS);
+        bytes = new AtomicReferenceArray<byte[]>(
+            stripes * classCount * SLOTS);
+        counters = new AtomicLongArray(stripes * PADDING);
+    }
+
+    public char[] allocateChars(int minLength) {
+        if (minLength > MAX_ARRAY_LENGTH) {
+            return new char[minLength];
+        }
+        int sizeClass = sizeClass(minLength);
+        int stripe = stripe();
+        int first = slot(stripe, sizeClass);
+        for (int i = first; i < first + SLOTS; i++) {
+            char[] a = chars.get(i);
+            if (a != null && chars.compareAndSet(i, a, null)) {
+                hit(stripe, -2L * a.length);
+                return a;
+            }
+        }
+        miss(stripe);
+        return new char[MIN_ARRAY_LENGTH << sizeClass];
+    }
+
+    public void releaseChars(char[] a) {
+        if (!pooled(a.length)) {
+            return;
+        }
+        int stripe = stripe();
+        if (!reserve(stripe, 2L * a.length)) {
+            return;
+        }
+        int first = slot(stripe, sizeClass(a.length));
+        for (int i = first; i < first + SLOTS; i++) {
+            if (chars.get(i) == null && chars.compareAndSet(i, null, a)) {
+                return;
+            }
+        }
+        counters.addAndGet(stripe * PADDING + POOLED_BYTES, -2L * a.length);
+    }
+
+    public byte[] allocateBytes(int minLength) {
+        if (minLength > MAX_ARRAY_LENGTH) {
+            return new byte[minLength];
+        }
+        int sizeClass = sizeClass(minLength);
+        int stripe = stripe();
+        int first = slot(stripe, sizeClass);
+        for (int i = first; i < first + SLOTS; i++) {
+            byte[] a = bytes.get(i);
+            if (a != null && bytes.compareAndSet(i, a, null)) {
+                hit(stripe, -a.length);
+                return a;
+            }
+        }
+        miss(stripe);
+        return new byte[MIN_ARRAY_LENGTH << sizeClass];
+    }
+
+    public void releaseBytes(byte[] a) {
+        if (!pooled(a.length)) {
+            return;
+        }
+        int stripe = stripe();
+        if (!reserve(stripe, a.length)) {
+            return;
+        }
+        int first = slot(stripe, sizeClass(a.length));
+        for (int i = first; i < first + SLOTS; i++) {
+            if (bytes.get(i) == null && bytes.compareAndSet(i, null, a)) {
+                return;
+            }
+        }
+        counters.addAndGet(stripe * PADDING + POOLED_BYTES, -a.length);
+    }
+
+    /**
+     * @return The number of allocations served from the pool
+     */
+    public long getHitCount() {
+        return sum(HITS);
+    }
+
+    /**
+     * @return The number of allocations that created a new array
+     */
+    public long getMissCount() {
+        return sum(MISSES);
+    }
+
+    /**
+     * @return The memory held by the arrays in the pool, in bytes
+     */
+    public long getPooledBytes() {
+        return sum(POOLED_BYTES);
+    }
+
+    /*
+     * Only arrays created by this pool, whose length is exactly that of a
+     * size class, are pooled.
+     */
+    private boolean pooled(int length) {
+        return length >= MIN_ARRAY_LENGTH && length <= MAX_ARRAY_LENGTH &&
+            (length & (length - 1)) == 0;
+    }
+
+    private static int sizeClass(int length) {
+        if (length <= MIN_ARRAY_LENGTH) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(length - 1) -
+            Integer.numberOfTrailingZeros(MIN_ARRAY_LENGTH);
+    }
+
+    private int stripe() {
+        return (int) Thread.currentThread().getId() & stripeMask;
+    }
+
+    private int slot(int stripe, int sizeClass) {
+        return (stripe * classCount + sizeClass) * SLOTS;
+    }
+
+    private void hit(int stripe, long pooledBytes) {
+        counters.incrementAndGet(stripe * PADDING + HITS);
+        counters.addAndGet(stripe * PADDING + POOLED_BYTES, pooledBytes);
+    }
+
+    private void miss(int stripe) {
+        counters.incrementAndGet(stripe * PADDING + MISSES);
+    }
+
+    /*
+     * Accounts for an array about to be put in a stripe, unless the
+     * stripe would then hold more than its share of MAX_MEMORY.
+     */
+    private boolean reserve(int stripe, long size) {
+        int i = stripe * PADDING + POOLED_BYTES;
+        for (;;) {
+            long current = counters.get(i);
+            if (current + size > maxStripeBytes) {
+                return false;
+            }
+            if (counters.compareAndSet(i, current, current + size)) {
+                return true;
+            }
+        }
+    }
+
+    private long sum(int counter) {
+        long sum = 0;
+        for (int i = counter; i < counters.length(); i += PADDING) {
+            sum += counters.get(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.jasper.runtime;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.JspTag;
+
+/**
+ * Lock-free pool of tag handlers that can be reused.
+ *
+ * The capacity of the pool is spread over stripes, at most one per
+ * processor, and a thread first uses the stripe selected by its id.  A
+ * handler is taken from, or put into, a slot with compare-and-set, so
+ * that threads neither wait on each other, nor contend on the same slots
+ * unless their stripe is empty or full.
+ *
+ * Select it with the tagpoolClassName init parameter:
+ * org.apache.jasper.runtime.StripedTagHandlerPool
+ *
+ * This pool keeps statistics if asked to, but its capacity is fixed: the
+ * tagpoolAdaptive init parameter is ignored.
+ */
+public class StripedTagHandlerPool extends TagHandlerPool {
+
+    private AtomicReferenceArray<JspTag> slots;
+    private int stripeMask;
+    private int slotsPerStripe;
+
+    public StripedTagHandlerPool() {
+        super();
+    }
+
+    protected void init(ServletConfig config) {
+        super.init(config);
+        int capacity = getCapacity();
+        int stripes = 1;
+        while (stripes * 2 <= capacity &&
+                stripes < Runtime.getRuntime().availableProcessors()) {
+            stripes *= 2;
+        }
+        stripeMask = stripes - 1;
+        slotsPerStripe = (capacity + stripes - 1) / stripes;
+        slots = new AtomicReferenceArray<JspTag>(stripes * slotsPerStripe);
+    }
+
+    /**
+     * Gets the next available tag handler from this tag handler pool,
+     * instantiating one if this tag handler pool is empty.
+     *
+     * @param handlerClass Tag handler class
+     *
+     * @return Reused or newly instantiated tag handler
+     *
+     * @throws JspException if a tag handler cannot be instantiated
+     */
+    public <T extends JspTag> JspTag get(Class<T> handlerClass)
+            throws JspException {
+        JspTag handler = getPooled();
+        if (handler != null) {
+            return handler;
+        }
+        if (isStatisticsEnabled()) {
+            countCheckout(false);
+        }
+        return newTagHandler(handlerClass);
+    }
+
+    /**
+     * Gets the next available tag handler from this tag handler pool,
+     * without instantiating one if this tag handler pool is empty.
+     *
+     * The tag handler was last used with the same attribute set, so its
+     * properties may still hold the values set by that use.
+     *
+     * @return Reused tag handler, or null if this tag handler pool is empty
+     */
+    public JspTag getPooled() {
+        int n = slots.length();
+        int first = stripe() * slotsPerStripe;
+        // Own stripe first, then the others
+        for (int i = 0; i < n; i++) {
+            int slot = (first + i) % n;
+            JspTag handler = slots.get(slot);
+            if (handler != null && slots.compareAndSet(slot, handler, null)) {
+                if (isStatisticsEnabled()) {
+                    countCheckout(true);
+                }
+                return handler;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the given tag handler to this tag handler pool, unless this tag
+     * handler pool has already reached its capacity, in which case the tag
+     * handler's release() method is called.
+     *
+     * @param handler JspTag handler to add to this tag handler pool
+     */
+    public void reuse(JspTag handler) {
+        int n = slots.length();
+        int first = stripe() * slotsPerStripe;
+        for (int i = 0; i < n; i++) {
+            int slot = (first + i) % n;
+            if (slots.get(slot) == null &&
+                    slots.compareAndSet(slot, null, handler)) {
+                if (isStatisticsEnabled()) {
+                    countReturn(true);
+                }
+                return;
+            }
+        }
+        if (isStatisticsEnabled()) {
+            countReturn(false);
+        }
+        destroyTagHandler(handler);
+    }
+
+    /**
+     * Calls the release() method of all available tag handlers in this tag
+     * handler pool.
+     */
+    public void release() {
+        for (int i = 0; i < slots.length(); i++) {
+            JspTag handler = slots.getAndSet(i, null);
+            if (handler != null) {
+                destroyTagHandler(handler);
+            }
+        }
+    }
+
+    private int stripe() {
+        return (int) Thread.currentThread().getId() & stripeMask;
+    }
+}
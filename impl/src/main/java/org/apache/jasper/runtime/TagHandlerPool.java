@@ -58,6 +58,10 @@
 
 package org.apache.jasper.runtime;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.tagext.JspTag;
 import javax.servlet.jsp.tagext.Tag;
@@ -68,12 +72,30 @@ import org.glassfish.jsp.api.ResourceInjector;
 /**
  * Pool of tag handlers that can be reused.
  *
+ * If the tagpoolStatistics init parameter is true, the pool counts its
+ * hits, misses, instantiations, discards and the peak number of handlers
+ * checked out at once.  Handlers that are not returned, because their
+ * tag threw an exception, remain counted as checked out.
+ *
+ * If the tagpoolAdaptive init parameter is true, the capacity of the pool
+ * is adjusted every ADAPT_INTERVAL gets: it grows by the number of misses
+ * since the last adjustment, up to tagpoolMaxAdaptiveSize, or, if there
+ * was no miss, it shrinks by the number of handlers that stayed idle in
+ * the pool all along.
+ *
  * @author Jan Luehe
  */
 public class TagHandlerPool {
 
     public static final String OPTION_TAGPOOL="tagpoolClassName";
     public static final String OPTION_MAXSIZE="tagpoolMaxSize";
+    public static final String OPTION_STATISTICS="tagpoolStatistics";
+    public static final String OPTION_ADAPTIVE="tagpoolAdaptive";
+    public static final String OPTION_MAX_ADAPTIVE_SIZE=
+        "tagpoolMaxAdaptiveSize";
+
+    private static final int ADAPT_INTERVAL = 256;
+    private static final int DEFAULT_MAX_ADAPTIVE_SIZE = 64;
 
     private JspTag[] handlers;
     private ResourceInjector resourceInjector;
@@ -81,6 +103,30 @@ public class TagHandlerPool {
     // index of next available tag handler
     private int current;
 
+    private boolean statistics;
+    private boolean adaptive;
+    private int maxAdaptiveSize;
+
+    // The class of the tag handlers, known once one is requested
+    private volatile Class<? extends JspTag> tagClass;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong instantiations = new AtomicLong();
+    private final AtomicLong discards = new AtomicLong();
+    private final AtomicInteger checkedOut = new AtomicInteger();
+    private final AtomicInteger peakCheckedOut = new AtomicInteger();
+
+    // Gets, misses, and fewest idle handlers since the capacity was last
+    // adjusted; guarded by lock
+    private int adaptGets;
+    private int adaptMisses;
+    private int adaptMinIdle;
+
+    // Guards handlers and current.  Not a monitor, so that a virtual
+    // thread does not pin its carrier thread while holding it.
+    private final ReentrantLock lock = new ReentrantLock();
+
     public static TagHandlerPool getTagHandlerPool( ServletConfig config) {
         TagHandlerPool result=null;
 
@@ -117,6 +163,21 @@ public class TagHandlerPool {
         this.handlers = new JspTag[maxSize];
         this.current = -1;
 
+        this.adaptive = "true".equals(getOption(config, OPTION_ADAPTIVE, null));
+        this.statistics = adaptive ||
+            "true".equals(getOption(config, OPTION_STATISTICS, null));
+        this.maxAdaptiveSize = DEFAULT_MAX_ADAPTIVE_SIZE;
+        String maxAdaptiveSizeS =
+            getOption(config, OPTION_MAX_ADAPTIVE_SIZE, null);
+        if (maxAdaptiveSizeS != null) {
+            try {
+                maxAdaptiveSize = Integer.parseInt(maxAdaptiveSizeS);
+            } catch (NumberFormatException ex) {
+                // Use the default
+            }
+        }
+        this.adaptMinIdle = Integer.MAX_VALUE;
+
         this.resourceInjector = (ResourceInjector)
             config.getServletContext().getAttribute(
                 Constants.JSP_RESOURCE_INJECTOR_CONTEXT_ATTRIBUTE);
@@ -141,6 +202,39 @@ public class TagHandlerPool {
 	this.current = -1;
     }
 
+    /**
+     * Gets the next available tag handler from this tag handler pool,
+     * without instantiating one if this tag handler pool is empty.
+     *
+     * The tag handler was last used with the same attribute set, so its
+     * properties may still hold the values set by that use.
+     *
+     * @return Reused tag handler, or null if this tag handler pool is empty
+     */
+    public JspTag getPooled() {
+        JspTag[] surplus = null;
+        lock.lock();
+        try {
+            if (current < 0) {
+                return null;
+            }
+            if (statistics) {
+                countCheckout(true);
+            }
+            if (adaptive) {
+                surplus = adapt();
+            }
+            return handlers[current--];
+        } finally {
+            lock.unlock();
+            if (surplus != null) {
+                for (JspTag handler: surplus) {
+                    destroyTagHandler(handler);
+                }
+            }
+        }
+    }
+
     /**
      * Gets the next available tag handler from this tag handler pool,
      * instantiating one if this tag handler pool is empty.
@@ -153,27 +247,68 @@ public class TagHandlerPool {
      */
     public <T extends JspTag> JspTag get(Class<T> handlerClass)
             throws JspException {
-        synchronized( this ) {
+        JspTag[] surplus = null;
+        lock.lock();
+        try {
+            if (statistics) {
+                countCheckout(current >= 0);
+            }
+            if (adaptive) {
+                surplus = adapt();
+            }
             if (current >= 0) {
                 return handlers[current--];
             }
+        } finally {
+            lock.unlock();
+            if (surplus != null) {
+                for (JspTag handler: surplus) {
+                    destroyTagHandler(handler);
+                }
+            }
         }
 
         // Out of sync block - there is no need for other threads to
         // wait for us to construct a tag for this thread.
-        JspTag tagHandler = null;
-        try {
-            if (resourceInjector != null) {
-                tagHandler = resourceInjector.createTagHandlerInstance(
-                    handlerClass);
-            } else {
-                tagHandler = handlerClass.newInstance();
-            }
-        } catch (Exception e) {
-            throw new JspException(e.getMessage(), e);
-        }
+        return newTagHandler(handlerClass);
+    }
 
-        return tagHandler;
+    /*
+     * Adjusts the capacity of this pool at the end of an adaptation
+     * interval.  Called with the lock held, before a handler is taken.
+     *
+     * @return The handlers that no longer fit in the pool, or null
+     */
+    private JspTag[] adapt() {
+        if (current < 0) {
+            adaptMisses++;
+        }
+        adaptMinIdle = Math.min(adaptMinIdle, current + 1);
+        if (++adaptGets < ADAPT_INTERVAL) {
+            return null;
+        }
+        int capacity = handlers.length;
+        if (adaptMisses > 0) {
+            capacity = Math.min(capacity + adaptMisses, maxAdaptiveSize);
+        } else {
+            capacity = Math.max(capacity - adaptMinIdle, 1);
+        }
+        adaptGets = 0;
+        adaptMisses = 0;
+        adaptMinIdle = Integer.MAX_VALUE;
+        if (capacity == handlers.length) {
+            return null;
+        }
+        JspTag[] surplus = null;
+        if (current >= capacity) {
+            surplus = new JspTag[current + 1 - capacity];
+            System.arraycopy(handlers, capacity, surplus, 0, surplus.length);
+            current = capacity - 1;
+        }
+        JspTag[] tmp = new JspTag[capacity];
+        System.arraycopy(handlers, 0, tmp, 0, current + 1);
+        handlers = tmp;
+        return surplus;
     }
 
     /**
@@ -184,35 +319,173 @@ public class TagHandlerPool {
      * @param handler JspTag handler to add to this tag handler pool
      */
     public void reuse(JspTag handler) {
-        synchronized( this ) {
+        lock.lock();
+        try {
             if (current < (handlers.length - 1)) {
                 handlers[++current] = handler;
+                if (statistics) {
+                    countReturn(true);
+                }
                 return;
             }
+        } finally {
+            lock.unlock();
         }
         // There is no need for other threads to wait for us to release
-        if (handler instanceof Tag) {
-            ((Tag)handler).release();
-        }
-
-        if (resourceInjector != null) {
-            resourceInjector.preDestroy(handler);
+        if (statistics) {
+            countReturn(false);
         }
+        destroyTagHandler(handler);
     }
 
     /**
      * Calls the release() method of all available tag handlers in this tag
      * handler pool.
      */
-    public synchronized void release() {
-	for (int i=current; i>=0; i--) {
-            if (handlers[i] instanceof Tag) {
-                ((Tag)handlers[i]).release();
-            }
+    public void release() {
+        lock.lock();
+        try {
+	    for (int i=current; i>=0; i--) {
+                destroyTagHandler(handlers[i]);
+	    }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the capacity of this tag handler pool.
+     */
+    public int getCapacity() {
+        return handlers.length;
+    }
+
+    /**
+     * Are the statistics of this pool counted?
+     */
+    protected boolean isStatisticsEnabled() {
+        return statistics;
+    }
+
+    /**
+     * Counts a tag handler checked out of this pool.
+     *
+     * @param hit true if the tag handler was taken from the pool, false if
+     *            it is to be instantiated
+     */
+    protected void countCheckout(boolean hit) {
+        (hit ? hits : misses).incrementAndGet();
+        int n = checkedOut.incrementAndGet();
+        int peak;
+        while (n > (peak = peakCheckedOut.get()) &&
+                !peakCheckedOut.compareAndSet(peak, n)) {
+            // Retry
+        }
+    }
+
+    /**
+     * Counts a tag handler returned to this pool.
+     *
+     * @param pooled true if the tag handler was kept in the pool, false if
+     *               it was discarded because the pool was full
+     */
+    protected void countReturn(boolean pooled) {
+        checkedOut.decrementAndGet();
+        if (!pooled) {
+            discards.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the class of the tag handlers of this pool, or null if no tag
+     * handler has been requested yet.
+     */
+    public Class<? extends JspTag> getTagClass() {
+        return tagClass;
+    }
+
+    /**
+     * Gets the number of tag handlers taken from this pool.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of requests for a tag handler that found this pool
+     * empty.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of tag handlers instantiated for this pool.
+     */
+    public long getInstantiationCount() {
+        return instantiations.get();
+    }
+
+    /**
+     * Gets the number of tag handlers released because this pool was
+     * full.
+     */
+    public long getDiscardCount() {
+        return discards.get();
+    }
+
+    /**
+     * Gets the largest number of tag handlers checked out of this pool at
+     * once.
+     */
+    public int getPeakCheckoutCount() {
+        return peakCheckedOut.get();
+    }
+
+    /**
+     * Instantiates a tag handler, through the ResourceInjector if any.
+     *
+     * @param handlerClass Tag handler class
+     *
+     * @return The new tag handler
+     *
+     * @throws JspException if the tag handler cannot be instantiated
+     */
+    protected JspTag newTagHandler(Class<? extends JspTag> handlerClass)
+            throws JspException {
+        if (tagClass == null) {
+            tagClass = handlerClass;
+        }
+        JspTag handler;
+        try {
             if (resourceInjector != null) {
-                resourceInjector.preDestroy(handlers[i]);
+                handler = resourceInjector.createTagHandlerInstance(
+                    handlerClass);
+            } else {
+                handler = handlerClass.newInstance();
             }
-	}
+        } catch (Exception e) {
+            throw new JspException(e.getMessage(), e);
+        }
+        if (statistics) {
+            instantiations.incrementAndGet();
+        }
+        return handler;
+    }
+
+    /**
+     * Calls the release() method of a tag handler that is not pooled, and
+     * the preDestroy() method of the ResourceInjector if any.
+     *
+     * @param handler The tag handler
+     */
+    protected void destroyTagHandler(JspTag handler) {
+        if (handler instanceof Tag) {
+            ((Tag)handler).release();
+        }
+        if (resourceInjector != null) {
+            resourceInjector.preDestroy(handler);
+        }
     }
 
     protected static String getOption( ServletConfig config, String name, String defaultV) {
@@ -105,5 +105,12 @@ public class VariableMapperImpl extends VariableMapper
         return prev;
     }
 
+    /**
+     * @return true if no variable has been set
+     */
+    boolean isEmpty() {
+        return map.isEmpty();
+    }
+
     private HashMap<String, ValueExpression> map;
 }
@@ -93,6 +93,13 @@ import org.apache.jasper.security.SecurityUtil;
  */
 public class JasperLoader extends URLClassLoader {
 
+    static {
+        // Lock per class name, instead of on the loader, so that pages
+        // are loaded concurrently, and so that the JSP classes of a page
+        // and the classes its parent loads are not loaded under one lock
+        registerAsParallelCapable();
+    }
+
     private PermissionCollection permissionCollection;
     private CodeSource codeSource;
     private ClassLoader parent;
@@ -150,7 +157,7 @@ public class JasperLoader extends URLClassLoader {
      *                                     
      * @exception ClassNotFoundException if the class was not found
      */                                    
-    public synchronized Class loadClass(final String name, boolean resolve)
+    public Class loadClass(final String name, boolean resolve)
         throws ClassNotFoundException {
 
         Class clazz = null;                
@@ -190,7 +197,16 @@ public class JasperLoader extends URLClassLoader {
 	    return clazz;
 	}
 
-	return findClass(name);
+        synchronized (getClassLoadingLock(name)) {
+            // Another thread may have loaded it in the meantime
+            clazz = findLoadedClass(name);
+            if (clazz == null) {
+                clazz = findClass(name);
+            }
+        }
+        if (resolve)
+            resolveClass(clazz);
+        return clazz;
     }
 
     // START OF IASRI 4709374
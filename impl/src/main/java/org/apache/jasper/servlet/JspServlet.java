@@ -70,6 +70,7 @@ import java.net.URLEncoder;
 import java.util.concurrent.ConcurrentHashMap;
 // END GlassFish 750
 import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.ReentrantLock;
 // START SJSWS 6232180
 import java.util.HashSet;
 import java.util.StringTokenizer;
@@ -83,6 +84,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.jsp.JspFactory;
 // START GlassFish 750
 import javax.servlet.jsp.tagext.TagLibraryInfo;
 // END GlassFish 750
@@ -97,6 +99,7 @@ import org.apache.jasper.compiler.JspRuntimeContext;
 import org.apache.jasper.compiler.JspUtil;
 import org.apache.jasper.compiler.Localizer;
 import org.apache.jasper.runtime.JspApplicationContextImpl;
+import org.apache.jasper.runtime.JspFactoryImpl;
 import org.glassfish.jsp.api.JspProbeEmitter;
 import org.glassfish.jsp.api.ResourceInjector;
 
@@ -131,6 +134,9 @@ public class JspServlet extends HttpServlet {
     // START S1AS
     // jsp error count
     private AtomicInteger countErrors = new AtomicInteger(0);
+
+    // Guards the creation of JspServletWrapper's
+    private final ReentrantLock wrapperLock = new ReentrantLock();
     // END S1AS
 
     // START SJSWS 6232180
@@ -405,6 +411,15 @@ public class JspServlet extends HttpServlet {
     public void destroy() {
         if (log.isLoggable(Level.FINE)) {
             log.fine("JspServlet.destroy()");
+            JspFactory factory = JspFactory.getDefaultFactory();
+            if (JspFactoryImpl.isPoolEnabled()
+                    && factory instanceof JspFactoryImpl) {
+                JspFactoryImpl factoryImpl = (JspFactoryImpl) factory;
+                log.fine(Localizer.getMessage("jsp.message.pageContextPool",
+                    String.valueOf(factoryImpl.getCreateCount()),
+                    String.valueOf(factoryImpl.getReuseCount()),
+                    String.valueOf(factoryImpl.getDiscardCount())));
+            }
         }
 
         rctxt.destroy();
@@ -435,7 +450,8 @@ public class JspServlet extends HttpServlet {
         JspServletWrapper wrapper =
             (JspServletWrapper) rctxt.getWrapper(jspUri);
         if (wrapper == null) {
-            synchronized(this) {
+            wrapperLock.lock();
+            try {
                 wrapper = (JspServletWrapper) rctxt.getWrapper(jspUri);
                 if (wrapper == null) {
                     // Check if the requested JSP page exists, to avoid
@@ -467,6 +483,8 @@ public class JspServlet extends HttpServlet {
                                                     isErrorPage, rctxt);
                     rctxt.addWrapper(jspUri,wrapper);
                 }
+            } finally {
+                wrapperLock.unlock();
             }
         }
 
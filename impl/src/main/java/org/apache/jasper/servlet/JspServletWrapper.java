@@ -64,6 +64,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -84,7 +87,11 @@ import org.apache.jasper.JspCompilationContext;
 import org.apache.jasper.Options;
 import org.apache.jasper.compiler.JspRuntimeContext;
 import org.apache.jasper.compiler.Localizer;
+import org.apache.jasper.runtime.AdaptiveBufferSize;
+import org.apache.jasper.runtime.HttpJspBase;
 import org.apache.jasper.runtime.JspSourceDependent;
+import org.apache.jasper.runtime.TagHandlerPool;
+import org.apache.jasper.runtime.TagHandlerPoolOwner;
 
 /**
  * The JSP engine (a.k.a Jasper).
@@ -132,6 +139,14 @@ public class JspServletWrapper {
     // END PWC 6468930
     private long lastModificationTest = 0L;
 
+    // Guards the compilation and (re)loading of the page.  This is a lock
+    // rather than a monitor, so that a virtual thread waiting for a page
+    // to compile does not pin its carrier thread.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Buffer size learned by the page, if it does not specify one
+    private AdaptiveBufferSize adaptiveBufferSize;
+
     /*
      * JspServletWrapper for JSP pages.
      */
@@ -150,6 +165,11 @@ public class JspServletWrapper {
         ctxt = new JspCompilationContext(jspUri, isErrorPage, options,
 					 config.getServletContext(),
 					 this, rctxt);
+        if (options.isAdaptiveBufferSize()) {
+            adaptiveBufferSize = new AdaptiveBufferSize(
+                options.getAdaptiveBufferMinSize(),
+                options.getAdaptiveBufferMaxSize());
+        }
         // START PWC 6468930
         String jspFilePath = ctxt.getRealPath(jspUri);
         if (jspFilePath != null) {
@@ -179,6 +199,34 @@ public class JspServletWrapper {
 					 tagFileJarUrl);
     }
 
+    /**
+     * Gets the lock held while this JspServletWrapper compiles or reloads
+     * its page.
+     */
+    public ReentrantLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Gets the buffer size learned by the page, or null if the
+     * adaptiveBufferSize option is not set, or if this is a tag file.
+     */
+    public AdaptiveBufferSize getAdaptiveBufferSize() {
+        return adaptiveBufferSize;
+    }
+
+    /**
+     * Gets the tag handler pools of the page, keyed by pool name.  The map
+     * is empty if the page is not loaded, or does not pool tag handlers.
+     */
+    public Map<String, TagHandlerPool> getTagHandlerPools() {
+        Servlet servlet = theServlet;
+        if (servlet instanceof TagHandlerPoolOwner) {
+            return ((TagHandlerPoolOwner) servlet).getTagHandlerPools();
+        }
+        return Collections.emptyMap();
+    }
+
     public JspCompilationContext getJspEngineContext() {
         return ctxt;
     }
@@ -191,8 +239,9 @@ public class JspServletWrapper {
         throws ServletException, IOException, ClassNotFoundException
     {
         if (reload) {
-            synchronized (this) {
-                // Synchronizing on jsw enables simultaneous loading
+            lock.lock();
+            try {
+                // Locking jsw enables simultaneous loading
                 // of different pages, but not the same page.
                 if (reload) {
                     // This is to maintain the original protocol.
@@ -201,6 +250,10 @@ public class JspServletWrapper {
                     try {
                         servletClass = ctxt.load();
                         theServlet = (Servlet) servletClass.newInstance();
+                        if (theServlet instanceof HttpJspBase) {
+                            ((HttpJspBase) theServlet).setAdaptiveBufferSize(
+                                adaptiveBufferSize);
+                        }
                     } catch( IllegalAccessException ex1 ) {
                         throw new JasperException( ex1 );
                     } catch( InstantiationException ex ) {
@@ -224,6 +277,8 @@ public class JspServletWrapper {
                         jspProbeEmitter.jspLoadedEvent(jspUri);
                     }
                 }
+            } finally {
+                lock.unlock();
             }
         }
         return theServlet;
@@ -250,11 +305,14 @@ public class JspServletWrapper {
      */
     public void setServletClassLastModifiedTime(long lastModified) {
         if (this.servletClassLastModifiedTime < lastModified) {
-            synchronized (this) {
+            lock.lock();
+            try {
                 if (this.servletClassLastModifiedTime < lastModified) {
                     this.servletClassLastModifiedTime = lastModified;
                     reload = true;
                 }
+            } finally {
+                lock.unlock();
             }
         }
     }
@@ -368,11 +426,14 @@ public class JspServletWrapper {
             if (!options.getUsePrecompiled()
                     && (options.getDevelopment() || firstTime)) {
             // END S1AS 6181923
-                synchronized (this) {
+                lock.lock();
+                try {
                     firstTime = false;
 
                     // The following sets reload to true, if necessary
                     ctxt.compile();
+                } finally {
+                    lock.unlock();
                 }
             } else {
                 if (compileException != null) {
@@ -402,11 +463,14 @@ public class JspServletWrapper {
              * (3) Service request
              */
             if (theServlet instanceof SingleThreadModel) {
-               // sync on the wrapper so that the freshness
+               // lock the wrapper so that the freshness
                // of the page is determined right before servicing
-               synchronized (this) {
+               lock.lock();
+               try {
                    theServlet.service(request, response);
-                }
+               } finally {
+                   lock.unlock();
+               }
             } else {
                 theServlet.service(request, response);
             }
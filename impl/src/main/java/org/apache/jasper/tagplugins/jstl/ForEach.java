@@ -62,18 +62,13 @@ import org.apache.jasper.compiler.tagplugin.*;
 
 public final class ForEach implements TagPlugin {
 
-    private boolean hasVar, hasBegin, hasEnd, hasStep;
+    private boolean hasVar, hasVarStatus, hasBegin, hasEnd, hasStep;
 
     public void doTag(TagPluginContext ctxt) {
 
 	String index = null;
 
-	boolean hasVarStatus = ctxt.isAttributeSpecified("varStatus");
-	if (hasVarStatus) {
-	    ctxt.dontUseTagPlugin();
-	    return;
-	}
-
+	hasVarStatus = ctxt.isAttributeSpecified("varStatus");
 	hasVar = ctxt.isAttributeSpecified("var");
 	hasBegin = ctxt.isAttributeSpecified("begin");
 	hasEnd = ctxt.isAttributeSpecified("end");
@@ -87,17 +82,35 @@ public final class ForEach implements TagPlugin {
 
 	// We must have a begin and end attributes
 	index = ctxt.getTemporaryVariableName();
-	ctxt.generateJavaSource("for (int " + index + " = ");
+	String beginV = ctxt.getTemporaryVariableName();
+	ctxt.generateJavaSource("int " + beginV + " = ");
 	ctxt.generateAttribute("begin");
-	ctxt.generateJavaSource("; " + index + " <= ");
+	ctxt.generateJavaSource(";");
+	String endV = ctxt.getTemporaryVariableName();
+	ctxt.generateJavaSource("int " + endV + " = ");
 	ctxt.generateAttribute("end");
+	ctxt.generateJavaSource(";");
+	String stepV = "1";
 	if (hasStep) {
-	    ctxt.generateJavaSource("; " + index + "+=");
+	    stepV = ctxt.getTemporaryVariableName();
+	    ctxt.generateJavaSource("int " + stepV + " = ");
 	    ctxt.generateAttribute("step");
-	    ctxt.generateJavaSource(") {");
+	    ctxt.generateJavaSource(";");
+	}
+	String statusV = null;
+	if (hasVarStatus) {
+	    statusV = Util.generateLoopTagStatus(ctxt,
+		"Integer.valueOf(" + beginV + ")",
+		"Integer.valueOf(" + endV + ")",
+		hasStep ? "Integer.valueOf(" + stepV + ")" : "null");
 	}
-	else {
-	    ctxt.generateJavaSource("; " + index + "++) {");
+	ctxt.generateJavaSource("for (int " + index + " = " + beginV + "; "
+				+ index + " <= " + endV + "; "
+				+ index + " += " + stepV + ") {");
+	if (hasVarStatus) {
+	    Util.generateLoopTagStatusUpdate(ctxt, statusV,
+		"Integer.valueOf(" + index + ")", index,
+		index + " + " + stepV + " > " + endV);
 	}
 
 	// If var is specified and the body contains an EL, then sycn
@@ -109,6 +122,7 @@ public final class ForEach implements TagPlugin {
 	}
 	ctxt.generateBody();
 	ctxt.generateJavaSource("}");
+	generateRemovals(ctxt);
     }
 
     /**
@@ -132,9 +146,12 @@ public final class ForEach implements TagPlugin {
 	    ctxt.generateAttribute("begin");
 	    ctxt.generateJavaSource(";");
 	}
-	if (hasEnd) {
+	if (hasEnd || hasVarStatus) {
+	    // The index of the current item, relative to begin
 	    indexV = ctxt.getTemporaryVariableName();
 	    ctxt.generateJavaSource("int " + indexV + " = 0;");
+	}
+	if (hasEnd) {
 	    endV = ctxt.getTemporaryVariableName();
 	    ctxt.generateJavaSource("int " + endV + " = ");
 	    ctxt.generateAttribute("end");
@@ -201,11 +218,31 @@ public final class ForEach implements TagPlugin {
 	    ctxt.generateJavaSource(iterV + ".next();");
 	}
 
+	String statusV = null;
+	if (hasVarStatus) {
+	    statusV = Util.generateLoopTagStatus(ctxt,
+		hasBegin ? "Integer.valueOf(" + beginV + ")" : "null",
+		hasEnd ? "Integer.valueOf(" + endV + ")" : "null",
+		hasStep ? "Integer.valueOf(" + stepV + ")" : "null");
+	}
+
 	ctxt.generateJavaSource("while (" + iterV + ".hasNext()){");
+	String itemV = ctxt.getTemporaryVariableName();
+	ctxt.generateJavaSource("Object " + itemV + " = " + iterV + ".next();");
 	if (hasVar) {
 	    ctxt.generateJavaSource("_jspx_page_context.setAttribute(");
 	    ctxt.generateAttribute("var");
-	    ctxt.generateJavaSource(", " + iterV + ".next());");
+	    ctxt.generateJavaSource(", " + itemV + ");");
+	}
+	if (hasVarStatus) {
+	    String statusIndex = hasBegin ? beginV + " + " + indexV : indexV;
+	    String last = "!" + iterV + ".hasNext()";
+	    if (hasEnd) {
+		last += " || " + statusIndex + " + "
+		    + (hasStep ? stepV : "1") + " > " + endV;
+	    }
+	    Util.generateLoopTagStatusUpdate(ctxt, statusV, itemV,
+					     statusIndex, last);
 	}
 
 	ctxt.generateBody();
@@ -217,13 +254,15 @@ public final class ForEach implements TagPlugin {
 			tV + "--)");
 	    ctxt.generateJavaSource(iterV + ".next();");
 	}
-	if (hasEnd) {
+	if (indexV != null) {
 	    if (hasStep) {
 		ctxt.generateJavaSource(indexV + "+=" + stepV + ";");
 	    }
 	    else {
 		ctxt.generateJavaSource(indexV + "++;");
 	    }
+	}
+	if (hasEnd) {
 	    if (hasBegin) {
 		ctxt.generateJavaSource("if(" + beginV + "+" + indexV +
 			">"+ endV + ")");
@@ -234,6 +273,22 @@ public final class ForEach implements TagPlugin {
 	    ctxt.generateJavaSource("break;");
 	}
 	ctxt.generateJavaSource("}");	// while
+	generateRemovals(ctxt);
+    }
+
+    /**
+     * Generate codes to remove the variables from the page scope once the
+     * loop is done, as the tag handler does
+     */
+    private void generateRemovals(TagPluginContext ctxt) {
+	if (hasVar) {
+	    ctxt.generateJavaSource("_jspx_page_context.removeAttribute(");
+	    ctxt.generateAttribute("var");
+	    ctxt.generateJavaSource(", PageContext.PAGE_SCOPE);");
+	}
+	if (hasVarStatus) {
+	    Util.generateLoopTagStatusRemoval(ctxt);
+	}
     }
 
     /**
@@ -0,0 +1,165 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.jasper.tagplugins.jstl;
+
+import org.apache.jasper.compiler.tagplugin.*;
+
+/**
+ * Generates the code for c:forTokens.  The tokens are found by scanning
+ * the items in place, and only the tokens that are iterated over are
+ * extracted.
+ */
+public final class ForTokens implements TagPlugin {
+
+    public void doTag(TagPluginContext ctxt) {
+        boolean hasVar = ctxt.isAttributeSpecified("var");
+        boolean hasVarStatus = ctxt.isAttributeSpecified("varStatus");
+        boolean hasBegin = ctxt.isAttributeSpecified("begin");
+        boolean hasEnd = ctxt.isAttributeSpecified("end");
+        boolean hasStep = ctxt.isAttributeSpecified("step");
+
+        String itemsV = ctxt.getTemporaryVariableName();
+        ctxt.generateJavaSource("String " + itemsV + " = ");
+        ctxt.generateAttribute("items");
+        ctxt.generateJavaSource(";");
+        ctxt.generateJavaSource("if (" + itemsV + " == null) {");
+        ctxt.generateJavaSource(itemsV + " = \"\";");
+        ctxt.generateJavaSource("}");
+        String delimsV = ctxt.getTemporaryVariableName();
+        ctxt.generateJavaSource("String " + delimsV + " = ");
+        ctxt.generateAttribute("delims");
+        ctxt.generateJavaSource(";");
+        ctxt.generateJavaSource("if (" + delimsV + " == null) {");
+        ctxt.generateJavaSource(delimsV + " = \"\";");
+        ctxt.generateJavaSource("}");
+
+        String beginV = "0";
+        if (hasBegin) {
+            beginV = ctxt.getTemporaryVariableName();
+            ctxt.generateJavaSource("int " + beginV + " = ");
+            ctxt.generateAttribute("begin");
+            ctxt.generateJavaSource(";");
+        }
+        String endV = null;
+        if (hasEnd) {
+            endV = ctxt.getTemporaryVariableName();
+            ctxt.generateJavaSource("int " + endV + " = ");
+            ctxt.generateAttribute("end");
+            ctxt.generateJavaSource(";");
+        }
+        String stepV = "1";
+        if (hasStep) {
+            stepV = ctxt.getTemporaryVariableName();
+            ctxt.generateJavaSource("int " + stepV + " = ");
+            ctxt.generateAttribute("step");
+            ctxt.generateJavaSource(";");
+        }
+        String statusV = null;
+        if (hasVarStatus) {
+            statusV = Util.generateLoopTagStatus(ctxt,
+                hasBegin ? "Integer.valueOf(" + beginV + ")" : "null",
+                hasEnd ? "Integer.valueOf(" + endV + ")" : "null",
+                hasStep ? "Integer.valueOf(" + stepV + ")" : "null");
+        }
+
+        // The position of the current token in the items, and its index
+        String startV = ctxt.getTemporaryVariableName();
+        String posV = ctxt.getTemporaryVariableName();
+        String indexV = ctxt.getTemporaryVariableName();
+        ctxt.generateJavaSource("int " + startV + ", " + posV + " = 0, "
+            + indexV + " = -1;");
+        ctxt.generateJavaSource("while ((" + startV
+            + " = org.apache.jasper.tagplugins.jstl.Util.skipDelims("
+            + itemsV + ", " + delimsV + ", " + posV + ")) < "
+            + itemsV + ".length()) {");
+        ctxt.generateJavaSource(posV
+            + " = org.apache.jasper.tagplugins.jstl.Util.skipToken("
+            + itemsV + ", " + delimsV + ", " + startV + ");");
+        ctxt.generateJavaSource(indexV + "++;");
+        if (hasBegin) {
+            ctxt.generateJavaSource("if (" + indexV + " < " + beginV + ") {");
+            ctxt.generateJavaSource("continue;");
+            ctxt.generateJavaSource("}");
+        }
+        if (hasEnd) {
+            ctxt.generateJavaSource("if (" + indexV + " > " + endV + ") {");
+            ctxt.generateJavaSource("break;");
+            ctxt.generateJavaSource("}");
+        }
+        if (hasStep) {
+            ctxt.generateJavaSource("if ((" + indexV + " - " + beginV + ") % "
+                + stepV + " != 0) {");
+            ctxt.generateJavaSource("continue;");
+            ctxt.generateJavaSource("}");
+        }
+
+        String tokenV = ctxt.getTemporaryVariableName();
+        ctxt.generateJavaSource("String " + tokenV + " = " + itemsV
+            + ".substring(" + startV + ", " + posV + ");");
+        if (hasVar) {
+            ctxt.generateJavaSource("_jspx_page_context.setAttribute(");
+            ctxt.generateAttribute("var");
+            ctxt.generateJavaSource(", " + tokenV + ");");
+        }
+        if (hasVarStatus) {
+            // As with the tag handler, the round is the last one if there
+            // is no token left, or if the next one is beyond the end
+            String last = "org.apache.jasper.tagplugins.jstl.Util.skipDelims("
+                + itemsV + ", " + delimsV + ", " + posV + ") == "
+                + itemsV + ".length()";
+            if (hasEnd) {
+                last += " || " + indexV + " + " + stepV + " > " + endV;
+            }
+            Util.generateLoopTagStatusUpdate(ctxt, statusV, tokenV, indexV,
+                                             last);
+        }
+        ctxt.generateBody();
+        ctxt.generateJavaSource("}");
+        if (hasVar) {
+            ctxt.generateJavaSource("_jspx_page_context.removeAttribute(");
+            ctxt.generateAttribute("var");
+            ctxt.generateJavaSource(", PageContext.PAGE_SCOPE);");
+        }
+        if (hasVarStatus) {
+            Util.generateLoopTagStatusRemoval(ctxt);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.jasper.tagplugins.jstl;
+
+import org.apache.jasper.compiler.tagplugin.*;
+
+/**
+ * Generates the code for c:param, when it is an immediate child of a c:url
+ * tag that is itself generated by its tag plugin.
+ */
+public final class Param implements TagPlugin {
+
+    public void doTag(TagPluginContext ctxt) {
+        TagPluginContext parentContext = ctxt.getParentContext();
+        String paramsV = null;
+        if (parentContext != null) {
+            paramsV = (String) parentContext.getPluginAttribute(Url.PARAMS);
+        }
+        if (paramsV == null) {
+            ctxt.dontUseTagPlugin();
+            return;
+        }
+
+        String nameV = ctxt.getTemporaryVariableName();
+        ctxt.generateJavaSource("String " + nameV + " = ");
+        ctxt.generateAttribute("name");
+        ctxt.generateJavaSource(";");
+        String valueV = ctxt.getTemporaryVariableName();
+        ctxt.generateJavaSource("String " + valueV + " = ");
+        if (ctxt.isAttributeSpecified("value")) {
+            ctxt.generateAttribute("value");
+            ctxt.generateJavaSource(";");
+            if (!ctxt.hasEmptyBody()) {
+                // The body is evaluated, but its content is not used
+                Util.generateBufferedBody(ctxt);
+            }
+        } else if (ctxt.hasEmptyBody()) {
+            ctxt.generateJavaSource("\"\";");
+        } else {
+            ctxt.generateJavaSource("null;");
+            String contentV = Util.generateBufferedBody(ctxt);
+            ctxt.generateJavaSource(valueV + " = " + contentV + ".trim();");
+        }
+        ctxt.generateJavaSource("org.apache.jasper.tagplugins.jstl.Util."
+            + "addParam(" + paramsV + ", " + nameV + ", " + valueV
+            + ", _jspx_page_context);");
+    }
+}
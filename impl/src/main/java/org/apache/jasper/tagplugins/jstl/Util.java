@@ -0,0 +1,411 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 1997-2013 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.apache.jasper.tagplugins.jstl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+import javax.el.ValueExpression;
+import javax.el.VariableMapper;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.JspTagException;
+import javax.servlet.jsp.JspWriter;
+import javax.servlet.jsp.PageContext;
+import javax.servlet.jsp.tagext.BodyContent;
+
+import org.apache.jasper.compiler.Localizer;
+import org.apache.jasper.compiler.tagplugin.TagPluginContext;
+import org.apache.jasper.runtime.JspRuntimeLibrary;
+
+/**
+ * Helpers shared by the JSTL tag plugins.  The static methods that take a
+ * TagPluginContext are used at translation time; the others are called by
+ * the generated code, and implement the semantics of the JSTL tag handlers
+ * the plugins replace.
+ */
+public final class Util {
+
+    private static final String VALID_SCHEME_CHARS =
+        "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789+.-";
+
+    private Util() {
+    }
+
+    /**
+     * Gets the Java expression for the PageContext scope named by the
+     * given constant scope attribute of a tag.
+     */
+    static String getScopeConstant(TagPluginContext ctxt, String attribute) {
+        String scope = ctxt.getConstantAttribute(attribute);
+        if ("request".equals(scope)) {
+            return "PageContext.REQUEST_SCOPE";
+        } else if ("session".equals(scope)) {
+            return "PageContext.SESSION_SCOPE";
+        } else if ("application".equals(scope)) {
+            return "PageContext.APPLICATION_SCOPE";
+        }
+        return "PageContext.PAGE_SCOPE";
+    }
+
+    /**
+     * Generates the body of the tag into a BodyContent, as the tag handler
+     * would with EVAL_BODY_BUFFERED, and stores its content in a String
+     * variable.
+     *
+     * @return The name of the variable holding the content of the body
+     */
+    static String generateBufferedBody(TagPluginContext ctxt) {
+        String contentV = ctxt.getTemporaryVariableName();
+        ctxt.generateJavaSource("String " + contentV + " = null;");
+        ctxt.generateJavaSource("out = _jspx_page_context.pushBody();");
+        ctxt.generateJavaSource("try {");
+        ctxt.generateBody();
+        ctxt.generateJavaSource(contentV
+            + " = ((javax.servlet.jsp.tagext.BodyContent) out).getString();");
+        ctxt.generateJavaSource("} finally {");
+        ctxt.generateJavaSource("out = _jspx_page_context.popBody();");
+        ctxt.generateJavaSource("}");
+        return contentV;
+    }
+
+    /**
+     * Generates the status object of a loop, exposed by the varStatus
+     * attribute of c:forEach and c:forTokens.  A single instance is
+     * updated for every round of the loop.
+     *
+     * @param begin The Java expression for the Integer begin attribute
+     * @param end The Java expression for the Integer end attribute
+     * @param step The Java expression for the Integer step attribute
+     * @return The name of the variable holding the status object
+     */
+    static String generateLoopTagStatus(TagPluginContext ctxt, String begin,
+                                        String end, String step) {
+        ctxt.generateDeclaration("LoopTagStatus",
+            "private static final class _jspx_LoopTagStatus\n" +
+            "    implements javax.servlet.jsp.jstl.core.LoopTagStatus {\n" +
+            "  private final Integer begin, end, step;\n" +
+            "  Object current;\n" +
+            "  int index, count;\n" +
+            "  boolean last;\n" +
+            "  _jspx_LoopTagStatus(Integer begin, Integer end, " +
+            "Integer step) {\n" +
+            "    this.begin = begin;\n" +
+            "    this.end = end;\n" +
+            "    this.step = step;\n" +
+            "  }\n" +
+            "  public Object getCurrent() { return current; }\n" +
+            "  public int getIndex() { return index; }\n" +
+            "  public int getCount() { return count; }\n" +
+            "  public boolean isFirst() { return count == 1; }\n" +
+            "  public boolean isLast() { return last; }\n" +
+            "  public Integer getBegin() { return begin; }\n" +
+            "  public Integer getEnd() { return end; }\n" +
+            "  public Integer getStep() { return step; }\n" +
+            "}"
+        );
+        String statusV = ctxt.getTemporaryVariableName();
+        ctxt.generateJavaSource("_jspx_LoopTagStatus " + statusV
+            + " = new _jspx_LoopTagStatus(" + begin + ", " + end + ", "
+            + step + ");");
+        return statusV;
+    }
+
+    /**
+     * Generates the code that updates the status object of a loop at the
+     * beginning of a round, and exposes it in the page scope.
+     *
+     * @param current The Java expression for the current item
+     * @param index The Java expression for the index of the current item
+     * @param last The Java expression that is true if the round is the
+     *             last one
+     */
+    static void generateLoopTagStatusUpdate(TagPluginContext ctxt,
+                                            String statusV, String current,
+                                            String index, String last) {
+        ctxt.generateJavaSource(statusV + ".current = " + current + ";");
+        ctxt.generateJavaSource(statusV + ".index = " + index + ";");
+        ctxt.generateJavaSource(statusV + ".count++;");
+        ctxt.generateJavaSource(statusV + ".last = " + last + ";");
+        ctxt.generateJavaSource("_jspx_page_context.setAttribute(");
+        ctxt.generateAttribute("varStatus");
+        ctxt.generateJavaSource(", " + statusV + ");");
+    }
+
+    /**
+     * Generates the code that removes the status object of a loop from
+     * the page scope once the loop is done.
+     */
+    static void generateLoopTagStatusRemoval(TagPluginContext ctxt) {
+        ctxt.generateJavaSource("_jspx_page_context.removeAttribute(");
+        ctxt.generateAttribute("varStatus");
+        ctxt.generateJavaSource(", PageContext.PAGE_SCOPE);");
+    }
+
+    /**
+     * Writes the given value, as c:out does.
+     *
+     * @param out The writer
+     * @param value The value, whose content is read if it is a Reader
+     * @param escapeXml true if the characters &lt;, &gt;, &amp;, ' and "
+     *                  are to be written as character entity codes
+     */
+    public static void out(JspWriter out, Object value, boolean escapeXml)
+            throws IOException {
+        if (value instanceof Reader) {
+            Reader reader = (Reader) value;
+            char[] buf = new char[4096];
+            int count;
+            while ((count = reader.read(buf, 0, buf.length)) != -1) {
+                if (escapeXml) {
+                    JspRuntimeLibrary.writeEscapedXml(out,
+                        new String(buf, 0, count));
+                } else {
+                    out.write(buf, 0, count);
+                }
+            }
+        } else {
+            String text = value.toString();
+            if (escapeXml) {
+                JspRuntimeLibrary.writeEscapedXml(out, text);
+            } else {
+                out.write(text);
+            }
+        }
+    }
+
+    /**
+     * Sets or removes a scoped variable, as c:set does.
+     *
+     * @param pageContext The page context
+     * @param var The name of the variable
+     * @param value The value, or null to remove the variable
+     * @param scope The scope of the variable
+     * @param scopeSpecified false if the variable is to be removed from
+     *                       all scopes when the value is null
+     */
+    public static void set(PageContext pageContext, String var, Object value,
+                           int scope, boolean scopeSpecified)
+            throws JspException {
+        if (value == null) {
+            if (scopeSpecified) {
+                pageContext.removeAttribute(var, scope);
+            } else {
+                pageContext.removeAttribute(var);
+            }
+        } else if (value instanceof ValueExpression) {
+            if (scope != PageContext.PAGE_SCOPE) {
+                throw new JspTagException(Localizer.getMessage(
+                    "jsp.error.jstl.set.deferredScope", var));
+            }
+            VariableMapper vm =
+                pageContext.getELContext().getVariableMapper();
+            if (vm != null) {
+                vm.setVariable(var, (ValueExpression) value);
+            }
+        } else {
+            // A page scoped attribute hides the deferred value of the same
+            // name
+            if (scope == PageContext.PAGE_SCOPE) {
+                VariableMapper vm =
+                    pageContext.getELContext().getVariableMapper();
+                if (vm != null) {
+                    vm.setVariable(var, null);
+                }
+            }
+            pageContext.setAttribute(var, value, scope);
+        }
+    }
+
+    /**
+     * Adds a request parameter to the query string being built for c:url,
+     * as c:param does.  The name and value are URL encoded with the
+     * character encoding of the response.
+     *
+     * @param params The query string being built
+     * @param name The name of the parameter, which is ignored if empty
+     * @param value The value of the parameter
+     */
+    public static void addParam(StringBuilder params, String name,
+                                String value, PageContext pageContext)
+            throws JspException {
+        if (name == null || name.length() == 0) {
+            return;
+        }
+        if (value == null) {
+            value = "";
+        }
+        String enc = pageContext.getResponse().getCharacterEncoding();
+        if (enc == null) {
+            enc = "ISO-8859-1";
+        }
+        try {
+            if (params.length() > 0) {
+                params.append('&');
+            }
+            params.append(URLEncoder.encode(name, enc));
+            params.append('=');
+            params.append(URLEncoder.encode(value, enc));
+        } catch (UnsupportedEncodingException ex) {
+            throw new JspTagException(ex);
+        }
+    }
+
+    /**
+     * Builds the URL for c:url: resolves the given URL against the
+     * context, inserts the parameters in its query string, and encodes it
+     * with the session ID if it is relative.
+     *
+     * @param url The URL
+     * @param context The context path the URL is relative to, or null for
+     *                the current web application
+     * @param params The encoded request parameters, or null
+     * @return The resulting URL
+     */
+    public static String url(String url, String context, CharSequence params,
+                             PageContext pageContext)
+            throws JspException {
+        String result = resolveUrl(url, context, pageContext);
+        if (params != null && params.length() > 0) {
+            int questionMark = result.indexOf('?');
+            if (questionMark == -1) {
+                result = result + "?" + params;
+            } else {
+                result = result.substring(0, questionMark + 1) + params
+                    + "&" + result.substring(questionMark + 1);
+            }
+        }
+        if (!isAbsoluteUrl(result)) {
+            HttpServletResponse response =
+                (HttpServletResponse) pageContext.getResponse();
+            result = response.encodeURL(result);
+        }
+        return result;
+    }
+
+    /**
+     * Restores the writer of the page context, popping the bodies pushed
+     * by the code that has thrown the exception caught by c:catch.
+     *
+     * @param out The writer before the body of c:catch
+     * @return The given writer
+     */
+    public static JspWriter unwind(PageContext pageContext, JspWriter out) {
+        while (pageContext.getOut() != out
+                && pageContext.getOut() instanceof BodyContent) {
+            pageContext.popBody();
+        }
+        return out;
+    }
+
+    /**
+     * Skips the delimiters starting at the given position, as c:forTokens
+     * does.
+     *
+     * @return The position of the next token, or the length of the items
+     *         if there is none
+     */
+    public static int skipDelims(String items, String delims, int pos) {
+        int length = items.length();
+        while (pos < length && delims.indexOf(items.charAt(pos)) >= 0) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Skips the token starting at the given position.
+     *
+     * @return The position following the token
+     */
+    public static int skipToken(String items, String delims, int pos) {
+        int length = items.length();
+        while (pos < length && delims.indexOf(items.charAt(pos)) < 0) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static String resolveUrl(String url, String context,
+                                     PageContext pageContext)
+            throws JspException {
+        if (isAbsoluteUrl(url)) {
+            return url;
+        }
+        if (context == null) {
+            if (url.startsWith("/")) {
+                HttpServletRequest request =
+                    (HttpServletRequest) pageContext.getRequest();
+                return request.getContextPath() + url;
+            }
+            return url;
+        }
+        if (!context.startsWith("/") || !url.startsWith("/")) {
+            throw new JspTagException(
+                Localizer.getMessage("jsp.error.jstl.url.relative"));
+        }
+        if (context.equals("/")) {
+            // Don't produce a URL starting with "//", which browsers take
+            // as a host name
+            return url;
+        }
+        return context + url;
+    }
+
+    private static boolean isAbsoluteUrl(String url) {
+        if (url == null) {
+            return false;
+        }
+        int colonPos = url.indexOf(':');
+        if (colonPos == -1) {
+            return false;
+        }
+        for (int i = 0; i < colonPos; i++) {
+            if (VALID_SCHEME_CHARS.indexOf(url.charAt(i)) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+}